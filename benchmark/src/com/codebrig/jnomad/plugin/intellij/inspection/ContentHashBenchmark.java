@@ -0,0 +1,52 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.google.common.cache.Cache;
+import com.google.common.hash.HashCode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content hashing plus report cache lookup, which runs on every inspection pass.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentHashBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int methodCount;
+
+    @Param({"0.1", "0.5"})
+    public double queryDensity;
+
+    private String source;
+    private final JNomadPluginConfiguration pluginConfiguration = new JNomadPluginConfiguration();
+    //built (weighed, soft values) and keyed the same way as the plugin's own cache
+    private final Cache<String, List<EnvFileFindings>> fileReportCache =
+            JNomadProjectService.createFileReportCache(pluginConfiguration.getReportCacheMemoryBudget());
+
+    @Setup
+    public void setup() {
+        source = SyntheticCorpus.generate(methodCount, queryDensity, 1).getSource();
+        fileReportCache.put(JNomadProjectService.getFileKey(hash(), pluginConfiguration), Collections.emptyList());
+    }
+
+    @Benchmark
+    public HashCode hash() {
+        return JNomadInspection.getContentHash(source);
+    }
+
+    @Benchmark
+    public List<EnvFileFindings> hashAndLookup() {
+        return fileReportCache.getIfPresent(JNomadProjectService.getFileKey(hash(), pluginConfiguration));
+    }
+
+}
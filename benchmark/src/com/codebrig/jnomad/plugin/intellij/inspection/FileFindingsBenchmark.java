@@ -0,0 +1,90 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import gnu.trove.TIntIntHashMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-line finding lookup and selection done by JNomadQueryVisitor.addEnvironmentProblems,
+ * plus the line remapping used when an edit only moves query calls.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileFindingsBenchmark {
+
+    private static final int SLOW_QUERY_THRESHOLD = 50;
+
+    @Param({"10", "100", "1000"})
+    public int methodCount;
+
+    @Param({"0.1", "0.5"})
+    public double queryDensity;
+
+    @Param({"1", "3"})
+    public int environmentCount;
+
+    private SyntheticCorpus corpus;
+    private EnvFileFindings[] fileFindings;
+    private TIntIntHashMap lineMapping;
+
+    @Setup
+    public void setup() {
+        corpus = SyntheticCorpus.generate(methodCount, queryDensity, 1);
+        Random random = new Random(1);
+        fileFindings = new EnvFileFindings[environmentCount];
+        for (int i = 0; i < environmentCount; i++) {
+            List<EnvFileFindings.Finding> findingList = new ArrayList<>();
+            for (int line : corpus.getQueryCallLines()) {
+                int endLine = line + 2;
+                String query = "SELECT e FROM Entity" + (line % 50) + " e WHERE e.column" + line + " = :value";
+                if (random.nextBoolean()) {
+                    findingList.add(new EnvFileFindings.Finding(EnvFileFindings.FindingType.MISSING_INDEX, line, endLine, query,
+                            "CREATE INDEX entity_column_idx ON entity (column);", "1", 0));
+                }
+                double score = random.nextInt(100);
+                findingList.add(new EnvFileFindings.Finding(EnvFileFindings.FindingType.SLOW_QUERY, line, endLine, query,
+                        String.valueOf(score), "", score));
+                if (random.nextInt(20) == 0) {
+                    findingList.add(new EnvFileFindings.Finding(EnvFileFindings.FindingType.INVALID_QUERY, line, endLine, query,
+                            "Failed to parse query", "", 0));
+                }
+            }
+            fileFindings[i] = new EnvFileFindings("env" + i, findingList);
+        }
+
+        //every query call moved down a line
+        lineMapping = new TIntIntHashMap();
+        for (int line : corpus.getQueryCallLines()) {
+            lineMapping.put(line, line + 1);
+            lineMapping.put(line + 2, line + 3);
+        }
+    }
+
+    @Benchmark
+    public void reportQueryCalls(Blackhole blackhole) {
+        for (int line : corpus.getQueryCallLines()) {
+            for (EnvFileFindings findings : fileFindings) {
+                blackhole.consume(JNomadQueryVisitor.getReportedFinding(findings.getLineFindings(line), SLOW_QUERY_THRESHOLD));
+            }
+        }
+    }
+
+    @Benchmark
+    public void remapLines(Blackhole blackhole) {
+        for (EnvFileFindings findings : fileFindings) {
+            blackhole.consume(findings.remapLines(lineMapping));
+        }
+    }
+
+}
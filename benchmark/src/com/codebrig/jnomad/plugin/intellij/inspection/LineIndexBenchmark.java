@@ -0,0 +1,56 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offset to line number resolution done for every query call the visitor sees.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineIndexBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int methodCount;
+
+    @Param({"0.1", "0.5"})
+    public double queryDensity;
+
+    private SyntheticCorpus corpus;
+    private LineIndex lineIndex;
+
+    @Setup
+    public void setup() {
+        corpus = SyntheticCorpus.generate(methodCount, queryDensity, 1);
+        lineIndex = LineIndex.of(corpus.getSource());
+    }
+
+    @Benchmark
+    public LineIndex buildIndex() {
+        return LineIndex.of(corpus.getSource());
+    }
+
+    @Benchmark
+    public void resolveQueryCallLines(Blackhole blackhole) {
+        for (int offset : corpus.getQueryCallOffsets()) {
+            blackhole.consume(lineIndex.getLineNumber(offset));
+        }
+    }
+
+    @Benchmark
+    public void buildAndResolve(Blackhole blackhole) {
+        LineIndex lineIndex = LineIndex.of(corpus.getSource());
+        for (int offset : corpus.getQueryCallOffsets()) {
+            blackhole.consume(lineIndex.getLineNumber(offset));
+        }
+    }
+
+}
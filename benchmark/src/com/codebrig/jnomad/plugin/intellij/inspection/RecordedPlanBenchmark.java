@@ -0,0 +1,104 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EXPLAIN round trips as report construction sees them once plans are cached. The database
+ * is stood in for by a connection that returns a recorded plan, so only the cache and
+ * JDBC proxy overhead is measured.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordedPlanBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int queryCount;
+
+    @Param({"5", "50"})
+    public int planRowCount;
+
+    private Connection connection;
+    private String[] explainList;
+
+    @Setup
+    public void setup() throws SQLException {
+        CachedRowSet recordedPlan = createRecordedPlan(planRowCount);
+        Connection database = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class},
+                (proxy, method, args) -> {
+                    if ("createStatement".equals(method.getName())) {
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Statement.class},
+                                (statementProxy, statementMethod, statementArgs) -> {
+                                    if ("executeQuery".equals(statementMethod.getName())) {
+                                        return recordedPlan.createCopy();
+                                    }
+                                    return null;
+                                });
+                    }
+                    return null;
+                });
+        connection = ExplainCache.wrap(database, "benchmark://recorded@localhost:5432/benchmark@");
+
+        explainList = new String[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            explainList[i] = "EXPLAIN SELECT * FROM entity" + (i % 50) + " WHERE column" + i + " = 1";
+        }
+
+        //record every plan up front; the benchmark measures cache hits
+        ExplainCache.invalidateAll();
+        try (Statement statement = connection.createStatement()) {
+            for (String explain : explainList) {
+                statement.executeQuery(explain).close();
+            }
+        }
+    }
+
+    @Benchmark
+    public void explain(Blackhole blackhole) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String explain : explainList) {
+                try (ResultSet resultSet = statement.executeQuery(explain)) {
+                    while (resultSet.next()) {
+                        blackhole.consume(resultSet.getString(1));
+                    }
+                }
+            }
+        }
+    }
+
+    private static CachedRowSet createRecordedPlan(int rowCount) throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(1);
+        metaData.setColumnName(1, "QUERY PLAN");
+        metaData.setColumnType(1, Types.VARCHAR);
+
+        CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+        rowSet.setMetaData(metaData);
+        for (int i = 0; i < rowCount; i++) {
+            rowSet.moveToInsertRow();
+            rowSet.updateString(1, "  ->  Seq Scan on entity" + i + "  (cost=0.00.." + (i * 100) + ".00 rows=" + i + " width=8)");
+            rowSet.insertRow();
+        }
+        rowSet.moveToCurrentRow();
+        rowSet.beforeFirst();
+        return rowSet;
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.Random;
+
+/**
+ * Generated DAO-style source with a given number of methods, a given fraction of which
+ * run a JPA query. Records the line and offset of each query call.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class SyntheticCorpus {
+
+    private final String source;
+    private final int[] queryCallLines;
+    private final int[] queryCallOffsets;
+
+    private SyntheticCorpus(String source, int[] queryCallLines, int[] queryCallOffsets) {
+        this.source = source;
+        this.queryCallLines = queryCallLines;
+        this.queryCallOffsets = queryCallOffsets;
+    }
+
+    static SyntheticCorpus generate(int methodCount, double queryDensity, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        TIntArrayList queryCallLines = new TIntArrayList();
+        TIntArrayList queryCallOffsets = new TIntArrayList();
+        int[] line = {1};
+
+        appendLine(sb, line, "package com.example.dao;");
+        appendLine(sb, line, "");
+        appendLine(sb, line, "import javax.persistence.EntityManager;");
+        appendLine(sb, line, "import java.util.List;");
+        appendLine(sb, line, "");
+        appendLine(sb, line, "public class SyntheticDao" + seed + " {");
+        appendLine(sb, line, "");
+        appendLine(sb, line, "    private EntityManager entityManager;");
+        for (int i = 0; i < methodCount; i++) {
+            appendLine(sb, line, "");
+            if (random.nextDouble() < queryDensity) {
+                appendLine(sb, line, "    public List<?> findByColumn" + i + "(Object value) {");
+                queryCallLines.add(line[0]);
+                queryCallOffsets.add(sb.length() + "        return ".length());
+                appendLine(sb, line, "        return entityManager.createQuery(\"SELECT e FROM Entity" + (i % 50)
+                        + " e WHERE e.column" + i + " = :value\")");
+                appendLine(sb, line, "                .setParameter(\"value\", value)");
+                appendLine(sb, line, "                .getResultList();");
+            } else {
+                appendLine(sb, line, "    public int compute" + i + "(int a, int b) {");
+                appendLine(sb, line, "        int result = a * " + i + " + b;");
+                appendLine(sb, line, "        return result;");
+            }
+            appendLine(sb, line, "    }");
+        }
+        appendLine(sb, line, "}");
+        return new SyntheticCorpus(sb.toString(), queryCallLines.toNativeArray(), queryCallOffsets.toNativeArray());
+    }
+
+    private static void appendLine(StringBuilder sb, int[] line, String text) {
+        sb.append(text).append('\n');
+        line[0]++;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    int[] getQueryCallLines() {
+        return queryCallLines;
+    }
+
+    int[] getQueryCallOffsets() {
+        return queryCallOffsets;
+    }
+
+}
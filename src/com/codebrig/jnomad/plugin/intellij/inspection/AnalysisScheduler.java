@@ -0,0 +1,117 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debounces file analysis requested by on-the-fly inspection passes. A newer request for
+ * the same file cancels the pending or running analysis of the older content, and once an
+ * analysis has something new to show (even if some environments didn't answer) the file is
+ * re-highlighted so the fresh findings get picked up.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class AnalysisScheduler {
+
+    private static class PendingAnalysis {
+
+        private final String contentHash;
+        private final ProgressIndicator indicator = new EmptyProgressIndicator();
+        private ScheduledFuture<?> delayFuture;
+
+        PendingAnalysis(String contentHash) {
+            this.contentHash = contentHash;
+        }
+
+        void cancel() {
+            if (delayFuture != null) {
+                delayFuture.cancel(false);
+            }
+            indicator.cancel();
+        }
+    }
+
+    private final ExecutorService analysisExecutor;
+    private final Map<String, PendingAnalysis> pendingMap = new HashMap<>();
+
+    AnalysisScheduler(ExecutorService analysisExecutor) {
+        this.analysisExecutor = analysisExecutor;
+    }
+
+    synchronized void schedule(PsiFile psiFile, String contentHash, long delayMillis, Callable<Boolean> analysis) {
+        VirtualFile virtualFile = psiFile.getVirtualFile();
+        Project project = psiFile.getProject();
+        String filePath = virtualFile.getPath();
+        PendingAnalysis pending = pendingMap.get(filePath);
+        if (pending != null) {
+            if (pending.contentHash.equals(contentHash)) {
+                return; //already scheduled for this content
+            }
+            pending.cancel(); //superseded
+        }
+
+        PendingAnalysis newPending = new PendingAnalysis(contentHash);
+        pendingMap.put(filePath, newPending);
+        newPending.delayFuture = JobScheduler.getScheduler().schedule(() -> analysisExecutor.execute(
+                () -> runAnalysis(project, virtualFile, newPending, analysis)), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void cancelAll() {
+        for (PendingAnalysis pending : pendingMap.values()) {
+            pending.cancel();
+        }
+        pendingMap.clear();
+    }
+
+    private void runAnalysis(Project project, VirtualFile virtualFile, PendingAnalysis pending, Callable<Boolean> analysis) {
+        boolean completed = false;
+        try {
+            //analysis returns whether it has anything new to highlight (complete or not)
+            completed = ProgressManager.getInstance().runProcess(() -> {
+                try {
+                    return analysis.call();
+                } catch (ProcessCanceledException e) {
+                    throw e;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            }, pending.indicator) && !pending.indicator.isCanceled();
+        } catch (ProcessCanceledException e) {
+            //superseded by newer content
+        } finally {
+            synchronized (this) {
+                pendingMap.remove(virtualFile.getPath(), pending);
+            }
+        }
+
+        if (completed) {
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (project.isDisposed() || !virtualFile.isValid()) {
+                    return;
+                }
+                PsiFile psiFile = PsiManager.getInstance(project).findFile(virtualFile);
+                if (psiFile != null) {
+                    DaemonCodeAnalyzer.getInstance(project).restart(psiFile);
+                }
+            });
+        }
+    }
+
+}
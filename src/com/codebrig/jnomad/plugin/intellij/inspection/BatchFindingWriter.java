@@ -0,0 +1,150 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.codebrig.jnomad.JNomadCLI;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams batch findings as they're produced, either as newline-delimited JSON (one finding
+ * per line) or as a single SARIF 2.1.0 log whose results array is written incrementally.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+abstract class BatchFindingWriter implements Closeable {
+
+    static final String NDJSON_FORMAT = "ndjson";
+    static final String SARIF_FORMAT = "sarif";
+
+    protected final JsonWriter jsonWriter;
+
+    private BatchFindingWriter(Writer writer) {
+        this.jsonWriter = new JsonWriter(writer);
+    }
+
+    static BatchFindingWriter create(String format, Writer writer) throws IOException {
+        if (NDJSON_FORMAT.equalsIgnoreCase(format)) {
+            return new NDJsonWriter(writer);
+        } else if (SARIF_FORMAT.equalsIgnoreCase(format)) {
+            return new SarifWriter(writer);
+        }
+        throw new IllegalArgumentException("Unsupported output format: " + format);
+    }
+
+    abstract void write(String filePath, String environmentName, EnvFileFindings.Finding finding) throws IOException;
+
+    static String getRuleId(EnvFileFindings.FindingType findingType) {
+        switch (findingType) {
+            case MISSING_INDEX:
+                return "jnomad/missing-index";
+            case SLOW_QUERY:
+                return "jnomad/slow-query";
+            default:
+                return "jnomad/invalid-query";
+        }
+    }
+
+    private static class NDJsonWriter extends BatchFindingWriter {
+
+        private final Writer writer;
+
+        NDJsonWriter(Writer writer) {
+            super(writer);
+            this.writer = writer;
+            jsonWriter.setLenient(true); //one top-level object per line
+        }
+
+        @Override
+        synchronized void write(String filePath, String environmentName, EnvFileFindings.Finding finding) throws IOException {
+            jsonWriter.beginObject();
+            jsonWriter.name("file").value(filePath);
+            jsonWriter.name("environment").value(environmentName);
+            jsonWriter.name("type").value(finding.getFindingType().name());
+            jsonWriter.name("rule").value(getRuleId(finding.getFindingType()));
+            jsonWriter.name("beginLine").value(finding.getBeginLine());
+            jsonWriter.name("endLine").value(finding.getEndLine());
+            jsonWriter.name("query").value(finding.getQuery());
+            jsonWriter.name("message").value(JNomadQueryVisitor.getProblemDescription(environmentName, finding));
+            if (finding.getFindingType() == EnvFileFindings.FindingType.MISSING_INDEX) {
+                jsonWriter.name("indexPriority").value(finding.getIndexPriority());
+            } else if (finding.getFindingType() == EnvFileFindings.FindingType.SLOW_QUERY) {
+                jsonWriter.name("queryScore").value(finding.getQueryScore());
+            }
+            jsonWriter.endObject();
+            jsonWriter.flush();
+            writer.write('\n');
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            jsonWriter.close();
+        }
+    }
+
+    private static class SarifWriter extends BatchFindingWriter {
+
+        SarifWriter(Writer writer) throws IOException {
+            super(writer);
+            jsonWriter.beginObject();
+            jsonWriter.name("$schema").value("https://json.schemastore.org/sarif-2.1.0.json");
+            jsonWriter.name("version").value("2.1.0");
+            jsonWriter.name("runs").beginArray();
+            jsonWriter.beginObject();
+            jsonWriter.name("tool").beginObject();
+            jsonWriter.name("driver").beginObject();
+            jsonWriter.name("name").value("JNomad");
+            jsonWriter.name("version").value(JNomadCLI.JNOMAD_VERSION);
+            jsonWriter.name("rules").beginArray();
+            for (EnvFileFindings.FindingType findingType : EnvFileFindings.FindingType.values()) {
+                jsonWriter.beginObject();
+                jsonWriter.name("id").value(getRuleId(findingType));
+                jsonWriter.endObject();
+            }
+            jsonWriter.endArray();
+            jsonWriter.endObject();
+            jsonWriter.endObject();
+            jsonWriter.name("results").beginArray();
+        }
+
+        @Override
+        synchronized void write(String filePath, String environmentName, EnvFileFindings.Finding finding) throws IOException {
+            jsonWriter.beginObject();
+            jsonWriter.name("ruleId").value(getRuleId(finding.getFindingType()));
+            jsonWriter.name("level").value(finding.getFindingType() == EnvFileFindings.FindingType.INVALID_QUERY ? "error" : "warning");
+            jsonWriter.name("message").beginObject();
+            jsonWriter.name("text").value(JNomadQueryVisitor.getProblemDescription(environmentName, finding));
+            jsonWriter.endObject();
+            jsonWriter.name("locations").beginArray();
+            jsonWriter.beginObject();
+            jsonWriter.name("physicalLocation").beginObject();
+            jsonWriter.name("artifactLocation").beginObject();
+            jsonWriter.name("uri").value(filePath);
+            jsonWriter.endObject();
+            jsonWriter.name("region").beginObject();
+            jsonWriter.name("startLine").value(Math.max(1, finding.getBeginLine()));
+            jsonWriter.name("endLine").value(Math.max(1, Math.max(finding.getBeginLine(), finding.getEndLine())));
+            jsonWriter.endObject();
+            jsonWriter.endObject();
+            jsonWriter.endObject();
+            jsonWriter.endArray();
+            jsonWriter.name("properties").beginObject();
+            jsonWriter.name("environment").value(environmentName);
+            jsonWriter.name("query").value(finding.getQuery());
+            jsonWriter.endObject();
+            jsonWriter.endObject();
+            jsonWriter.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            jsonWriter.endArray();
+            jsonWriter.endObject();
+            jsonWriter.endArray();
+            jsonWriter.endObject();
+            jsonWriter.close();
+        }
+    }
+
+}
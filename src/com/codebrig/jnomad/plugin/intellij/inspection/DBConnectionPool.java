@@ -0,0 +1,212 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.intellij.concurrency.JobScheduler;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of JDBC connections for a single DBConnection. Idle connections are
+ * validated before reuse and closed once they've sat unused for too long. Pools belong to
+ * an owner (a project's JNomadProjectService) and are shut down with it.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class DBConnectionPool {
+
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long EVICT_AFTER_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final Map<String, DBConnectionPool> poolMap = new ConcurrentHashMap<>();
+    private static ScheduledFuture<?> evictionFuture;
+
+    private static class IdleConnection {
+
+        private final Connection connection;
+        private final long idleSince;
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private final JNomadPluginConfiguration.DBConnection dbConnection;
+    private final int maximumSize;
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    private boolean shutdown = false;
+
+    private DBConnectionPool(JNomadPluginConfiguration.DBConnection dbConnection, int maximumSize) {
+        this.dbConnection = dbConnection;
+        this.maximumSize = maximumSize;
+        this.permits = new Semaphore(maximumSize, true);
+    }
+
+    static DBConnectionPool getPool(String owner, JNomadPluginConfiguration.DBConnection dbConnection, int maximumSize) {
+        synchronized (poolMap) {
+            if (evictionFuture == null) {
+                evictionFuture = JobScheduler.getScheduler().scheduleWithFixedDelay(
+                        DBConnectionPool::evictIdleConnections, 1, 1, TimeUnit.MINUTES);
+            }
+            return poolMap.computeIfAbsent(owner + "|" + dbConnection.getCacheKey(),
+                    key -> new DBConnectionPool(dbConnection, maximumSize));
+        }
+    }
+
+    static void shutdownAll(String owner) {
+        synchronized (poolMap) {
+            Iterator<Map.Entry<String, DBConnectionPool>> itr = poolMap.entrySet().iterator();
+            while (itr.hasNext()) {
+                Map.Entry<String, DBConnectionPool> entry = itr.next();
+                if (entry.getKey().startsWith(owner + "|")) {
+                    entry.getValue().shutdown();
+                    itr.remove();
+                }
+            }
+        }
+    }
+
+    static void shutdownAll() {
+        synchronized (poolMap) {
+            for (DBConnectionPool pool : poolMap.values()) {
+                pool.shutdown();
+            }
+            poolMap.clear();
+            if (evictionFuture != null) {
+                evictionFuture.cancel(false);
+                evictionFuture = null;
+            }
+        }
+    }
+
+    static List<DBConnectionPool> getPoolList() {
+        return new ArrayList<>(poolMap.values());
+    }
+
+    Connection borrow() throws SQLException {
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new SQLException("Timed out waiting for a pooled connection to " + dbConnection);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a pooled connection to " + dbConnection, e);
+        }
+
+        try {
+            IdleConnection idleConnection;
+            while ((idleConnection = pollIdleConnection()) != null) {
+                if (isValid(idleConnection)) {
+                    return idleConnection.connection;
+                }
+                closeQuietly(idleConnection.connection);
+            }
+            return dbConnection.toConnection();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(Connection connection) {
+        try {
+            boolean reusable;
+            try {
+                reusable = !connection.isClosed();
+                if (reusable && !connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+            } catch (SQLException e) {
+                reusable = false;
+            }
+
+            synchronized (this) {
+                if (reusable && !shutdown) {
+                    idleConnections.push(new IdleConnection(connection));
+                    return;
+                }
+            }
+            closeQuietly(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    String getDatabase() {
+        return dbConnection.getCacheKey();
+    }
+
+    int getMaximumSize() {
+        return maximumSize;
+    }
+
+    int getAvailableCount() {
+        return permits.availablePermits();
+    }
+
+    synchronized int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    private synchronized IdleConnection pollIdleConnection() {
+        return idleConnections.poll();
+    }
+
+    private synchronized void shutdown() {
+        shutdown = true;
+        for (IdleConnection idleConnection : idleConnections) {
+            closeQuietly(idleConnection.connection);
+        }
+        idleConnections.clear();
+    }
+
+    private synchronized void evictIdle(long now) {
+        Iterator<IdleConnection> itr = idleConnections.iterator();
+        while (itr.hasNext()) {
+            IdleConnection idleConnection = itr.next();
+            if (now - idleConnection.idleSince >= EVICT_AFTER_IDLE_MILLIS) {
+                closeQuietly(idleConnection.connection);
+                itr.remove();
+            }
+        }
+    }
+
+    private static void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (DBConnectionPool pool : poolMap.values()) {
+            pool.evictIdle(now);
+        }
+    }
+
+    private static boolean isValid(IdleConnection idleConnection) {
+        try {
+            if (System.currentTimeMillis() - idleConnection.idleSince < VALIDATE_AFTER_IDLE_MILLIS) {
+                return !idleConnection.connection.isClosed();
+            }
+            return idleConnection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            //ignore
+        }
+    }
+
+}
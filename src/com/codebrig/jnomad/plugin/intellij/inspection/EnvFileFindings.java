@@ -0,0 +1,389 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.codebrig.jnomad.model.QueryScore;
+import com.codebrig.jnomad.model.RecommendedIndex;
+import com.codebrig.jnomad.model.SourceCodeExtract;
+import com.codebrig.jnomad.task.explain.QueryIndexReport;
+import com.github.javaparser.Range;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.IOUtil;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything JNomadQueryVisitor needs from an EnvFileFullReport, kept in the order the
+ * findings are checked (missing indexes, slow queries, invalid queries). Findings are stored
+ * column-wise in primitive arrays with interned strings, and indexed by line number, so a
+ * cached entry holds nothing of the report it was built from.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class EnvFileFindings {
+
+    enum FindingType {
+        MISSING_INDEX, SLOW_QUERY, INVALID_QUERY
+    }
+
+    static class Finding {
+
+        private final FindingType findingType;
+        private final int beginLine;
+        private final int endLine;
+        private final String query;
+        private final String detail;
+        private final String indexPriority;
+        private final double queryScore;
+
+        Finding(FindingType findingType, int beginLine, int endLine, String query, String detail, String indexPriority,
+                double queryScore) {
+            this.findingType = findingType;
+            this.beginLine = beginLine;
+            this.endLine = endLine;
+            this.query = query;
+            this.detail = detail;
+            this.indexPriority = indexPriority;
+            this.queryScore = queryScore;
+        }
+
+        FindingType getFindingType() {
+            return findingType;
+        }
+
+        int getBeginLine() {
+            return beginLine;
+        }
+
+        int getEndLine() {
+            return endLine;
+        }
+
+        String getQuery() {
+            return query;
+        }
+
+        String getDetail() {
+            return detail;
+        }
+
+        String getIndexPriority() {
+            return indexPriority;
+        }
+
+        double getQueryScore() {
+            return queryScore;
+        }
+    }
+
+    /**
+     * View of the findings matched to one line; findings are created as they're asked for.
+     */
+    static class LineFindings {
+
+        private final EnvFileFindings findings;
+        private final int fromIndex;
+        private final int toIndex;
+
+        private LineFindings(EnvFileFindings findings, int fromIndex, int toIndex) {
+            this.findings = findings;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        @Nullable
+        Finding getMissingIndex() {
+            return getFirst(FindingType.MISSING_INDEX);
+        }
+
+        List<Finding> getSlowQueryList() {
+            List<Finding> slowQueryList = new ArrayList<>(1);
+            for (int i = fromIndex; i < toIndex; i++) {
+                int findingIndex = findings.lineFindingIndexes[i];
+                if (findings.findingTypes[findingIndex] == FindingType.SLOW_QUERY.ordinal()) {
+                    slowQueryList.add(findings.getFinding(findingIndex));
+                }
+            }
+            return slowQueryList;
+        }
+
+        @Nullable
+        Finding getInvalidQuery() {
+            return getFirst(FindingType.INVALID_QUERY);
+        }
+
+        @Nullable
+        private Finding getFirst(FindingType findingType) {
+            for (int i = fromIndex; i < toIndex; i++) {
+                int findingIndex = findings.lineFindingIndexes[i];
+                if (findings.findingTypes[findingIndex] == findingType.ordinal()) {
+                    return findings.getFinding(findingIndex);
+                }
+            }
+            return null;
+        }
+    }
+
+    static final DataExternalizer<EnvFileFindings> EXTERNALIZER = new DataExternalizer<EnvFileFindings>() {
+        @Override
+        public void save(@NotNull DataOutput out, EnvFileFindings value) throws IOException {
+            IOUtil.writeUTF(out, value.environmentName);
+            out.writeInt(value.size());
+            for (int i = 0; i < value.size(); i++) {
+                out.writeByte(value.findingTypes[i]);
+                out.writeInt(value.beginLines[i]);
+                out.writeInt(value.endLines[i]);
+                IOUtil.writeUTF(out, value.queries[i]);
+                IOUtil.writeUTF(out, value.details[i]);
+                IOUtil.writeUTF(out, value.indexPriorities[i]);
+                out.writeDouble(value.queryScores[i]);
+            }
+        }
+
+        @Override
+        public EnvFileFindings read(@NotNull DataInput in) throws IOException {
+            String environmentName = IOUtil.readUTF(in);
+            int findingCount = in.readInt();
+            List<Finding> findingList = new ArrayList<>(findingCount);
+            for (int i = 0; i < findingCount; i++) {
+                FindingType findingType = FindingType.values()[in.readByte()];
+                int beginLine = in.readInt();
+                int endLine = in.readInt();
+                String query = IOUtil.readUTF(in);
+                String detail = IOUtil.readUTF(in);
+                String indexPriority = IOUtil.readUTF(in);
+                double queryScore = in.readDouble();
+                findingList.add(new Finding(findingType, beginLine, endLine, query, detail, indexPriority, queryScore));
+            }
+            return new EnvFileFindings(environmentName, findingList);
+        }
+    };
+
+    //queries, index SQL and priorities repeat across environments and files
+    private static final Interner<String> stringInterner = Interners.newWeakInterner();
+
+    private final String environmentName;
+    private final byte[] findingTypes;
+    private final int[] beginLines;
+    private final int[] endLines;
+    private final double[] queryScores;
+    private final String[] queries;
+    private final String[] details;
+    private final String[] indexPriorities;
+
+    //sorted line numbers; findings of lineNumbers[i] are lineFindingIndexes[lineOffsets[i]..lineOffsets[i + 1])
+    private final int[] lineNumbers;
+    private final int[] lineOffsets;
+    private final int[] lineFindingIndexes;
+
+    EnvFileFindings(String environmentName, List<Finding> findingList) {
+        int findingCount = findingList.size();
+        this.environmentName = stringInterner.intern(environmentName);
+        this.findingTypes = new byte[findingCount];
+        this.beginLines = new int[findingCount];
+        this.endLines = new int[findingCount];
+        this.queryScores = new double[findingCount];
+        this.queries = new String[findingCount];
+        this.details = new String[findingCount];
+        this.indexPriorities = new String[findingCount];
+        for (int i = 0; i < findingCount; i++) {
+            Finding finding = findingList.get(i);
+            findingTypes[i] = (byte) finding.getFindingType().ordinal();
+            beginLines[i] = finding.getBeginLine();
+            endLines[i] = finding.getEndLine();
+            queryScores[i] = finding.getQueryScore();
+            queries[i] = intern(finding.getQuery());
+            details[i] = intern(finding.getDetail());
+            indexPriorities[i] = intern(finding.getIndexPriority());
+        }
+
+        //findings may be matched on either their begin or end line
+        TIntObjectHashMap<TIntArrayList> lineFindingsMap = new TIntObjectHashMap<>();
+        for (int i = 0; i < findingCount; i++) {
+            if (beginLines[i] > 0) {
+                addLineFinding(lineFindingsMap, beginLines[i], i);
+            }
+            if (endLines[i] > 0 && endLines[i] != beginLines[i]) {
+                addLineFinding(lineFindingsMap, endLines[i], i);
+            }
+        }
+        this.lineNumbers = lineFindingsMap.keys();
+        Arrays.sort(lineNumbers);
+        this.lineOffsets = new int[lineNumbers.length + 1];
+        TIntArrayList lineFindingIndexList = new TIntArrayList();
+        for (int i = 0; i < lineNumbers.length; i++) {
+            lineOffsets[i] = lineFindingIndexList.size();
+            lineFindingIndexList.add(lineFindingsMap.get(lineNumbers[i]).toNativeArray());
+        }
+        lineOffsets[lineNumbers.length] = lineFindingIndexList.size();
+        this.lineFindingIndexes = lineFindingIndexList.toNativeArray();
+    }
+
+    private static void addLineFinding(TIntObjectHashMap<TIntArrayList> lineFindingsMap, int lineNumber, int findingIndex) {
+        TIntArrayList findingIndexList = lineFindingsMap.get(lineNumber);
+        if (findingIndexList == null) {
+            findingIndexList = new TIntArrayList(1);
+            lineFindingsMap.put(lineNumber, findingIndexList);
+        }
+        findingIndexList.add(findingIndex);
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : stringInterner.intern(value);
+    }
+
+    static EnvFileFindings fromReport(EnvFileFullReport fileFullReport, List<SourceCodeExtract> scanList,
+                                      Map<String, SourceCodeExtract> failedParseQueries) {
+        List<Finding> findingList = new ArrayList<>();
+
+        //recommend indexes
+        for (QueryScore queryScore : fileFullReport.getQueryScoreList()) {
+            for (RecommendedIndex rIndex : fileFullReport.getRecommendedIndexList()) {
+                if (rIndex.isIndexAffect(queryScore.getOriginalQuery())) {
+                    findingList.add(new Finding(FindingType.MISSING_INDEX,
+                            queryScore.getQueryLocation().begin.line, queryScore.getQueryLocation().end.line,
+                            String.valueOf(queryScore.getOriginalQuery()), rIndex.getIndexCreateSQL(), String.valueOf(rIndex.getIndexPriority()), 0));
+                    break;
+                }
+            }
+        }
+
+        //slow queries; threshold is applied when visiting so it can change without re-explaining
+        for (QueryScore queryScore : fileFullReport.getQueryScoreList()) {
+            findingList.add(new Finding(FindingType.SLOW_QUERY,
+                    queryScore.getQueryLocation().begin.line, queryScore.getQueryLocation().end.line,
+                    String.valueOf(queryScore.getOriginalQuery()), String.valueOf(queryScore.getScore()), "", queryScore.getScore()));
+        }
+
+        //failed queries (only those belonging to the scanned file)
+        QueryIndexReport indexReport = fileFullReport.getQueryIndexReport();
+        Set<String> failedQuerySet = new LinkedHashSet<>(indexReport.getFailedQueryParseList());
+        for (Map.Entry<String, SourceCodeExtract> entry : failedParseQueries.entrySet()) {
+            if (scanList.contains(entry.getValue())) {
+                failedQuerySet.add(entry.getKey());
+            }
+        }
+        for (String failedQuery : failedQuerySet) {
+            SourceCodeExtract sourceCodeExtract = failedParseQueries.get(failedQuery);
+            if (sourceCodeExtract == null) {
+                sourceCodeExtract = indexReport.getSourceCodeExtractMap().get(failedQuery);
+            }
+            if (sourceCodeExtract != null) {
+                Range failedQueryRange = sourceCodeExtract.getQueryLiteralExtractor().getQueryCallRange(failedQuery);
+                String reason = indexReport.getFailedQueryReason(failedQuery);
+                if (reason == null) {
+                    reason = "Failed to parse query";
+                }
+                findingList.add(new Finding(FindingType.INVALID_QUERY,
+                        failedQueryRange.begin.line, failedQueryRange.end.line, failedQuery, reason, "", 0));
+            }
+        }
+        return new EnvFileFindings(fileFullReport.getEnvironment().getEnvironmentName(), findingList);
+    }
+
+    /**
+     * Moves findings to new line numbers. Each finding moves by as many lines as the query
+     * call it starts (or ends) on; findings on lines missing from the mapping can no longer
+     * be matched to a query call and are dropped.
+     */
+    EnvFileFindings remapLines(TIntIntHashMap lineMapping) {
+        List<Finding> remappedList = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            int lineDelta;
+            if (lineMapping.containsKey(beginLines[i])) {
+                lineDelta = lineMapping.get(beginLines[i]) - beginLines[i];
+            } else if (lineMapping.containsKey(endLines[i])) {
+                lineDelta = lineMapping.get(endLines[i]) - endLines[i];
+            } else {
+                continue;
+            }
+            remappedList.add(new Finding(FindingType.values()[findingTypes[i]], shiftLine(beginLines[i], lineDelta),
+                    shiftLine(endLines[i], lineDelta), queries[i], details[i], indexPriorities[i], queryScores[i]));
+        }
+        return new EnvFileFindings(environmentName, remappedList);
+    }
+
+    private static int shiftLine(int line, int lineDelta) {
+        return line > 0 ? line + lineDelta : line;
+    }
+
+    /**
+     * @return the finding the inspection reports on each line that has one
+     */
+    List<Finding> getReportedFindingList(int slowQueryThreshold) {
+        List<Finding> reportedList = new ArrayList<>();
+        TIntHashSet reportedLines = new TIntHashSet();
+        for (int i = 0; i < size(); i++) {
+            int lineNumber = beginLines[i] > 0 ? beginLines[i] : endLines[i];
+            if (reportedLines.add(lineNumber)) {
+                Finding reportedFinding = JNomadQueryVisitor.getReportedFinding(getLineFindings(lineNumber), slowQueryThreshold);
+                if (reportedFinding != null) {
+                    reportedList.add(reportedFinding);
+                }
+            }
+        }
+        return reportedList;
+    }
+
+    /**
+     * @return rough estimate of the bytes held by these findings (used to weigh cache entries)
+     */
+    int getRetainedSize() {
+        //interned strings are shared between entries, but are counted here as if they weren't
+        long retainedSize = 80 + 10 * 16 + size() * (1 + 4 + 4 + 8 + 3 * 4)
+                + 4L * (lineNumbers.length + lineOffsets.length + lineFindingIndexes.length);
+        for (int i = 0; i < size(); i++) {
+            retainedSize += getRetainedSize(queries[i]) + getRetainedSize(details[i]) + getRetainedSize(indexPriorities[i]);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, retainedSize);
+    }
+
+    private static long getRetainedSize(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    String getEnvironmentName() {
+        return environmentName;
+    }
+
+    int size() {
+        return findingTypes.length;
+    }
+
+    Finding getFinding(int index) {
+        return new Finding(FindingType.values()[findingTypes[index]], beginLines[index], endLines[index], queries[index],
+                details[index], indexPriorities[index], queryScores[index]);
+    }
+
+    List<Finding> getFindingList() {
+        List<Finding> findingList = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            findingList.add(getFinding(i));
+        }
+        return findingList;
+    }
+
+    @Nullable
+    LineFindings getLineFindings(int lineNumber) {
+        int lineIndex = Arrays.binarySearch(lineNumbers, lineNumber);
+        if (lineIndex < 0) {
+            return null;
+        }
+        return new LineFindings(this, lineOffsets[lineIndex], lineOffsets[lineIndex + 1]);
+    }
+
+}
@@ -0,0 +1,308 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.jetbrains.annotations.Nullable;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Caches EXPLAIN results beneath FileFullReport by wrapping the JDBC connection it's handed.
+ * Entries are keyed by connection identity plus whitespace-normalized EXPLAIN text, so the
+ * same query in any file (or an unchanged query in an edited file) is only explained once.
+ * When plans are being recorded every result is also handed to the recording, and when
+ * they're being replayed the recording answers in place of the database.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class ExplainCache {
+
+    private static final int MAXIMUM_SIZE = 10_000;
+    private static final Cache<String, ExplainResult> explainCache = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE).recordStats().build();
+
+    static class ExplainResult {
+
+        private final CachedRowSet rowSet;
+        private final SQLException failure;
+
+        ExplainResult(CachedRowSet rowSet, SQLException failure) {
+            this.rowSet = rowSet;
+            this.failure = failure;
+        }
+
+        @Nullable
+        SQLException getFailure() {
+            return failure;
+        }
+
+        CachedRowSet copyRowSet() throws SQLException {
+            synchronized (rowSet) {
+                return rowSet.createCopy();
+            }
+        }
+
+        ResultSet toResultSet() throws SQLException {
+            if (failure != null) {
+                throw new SQLException(failure.getMessage(), failure.getSQLState(), failure.getErrorCode());
+            }
+            synchronized (rowSet) {
+                return rowSet.createCopy();
+            }
+        }
+    }
+
+    static Connection wrap(Connection connection, String connectionKey) {
+        return wrap(connection, connectionKey, null);
+    }
+
+    static Connection wrap(Connection connection, String connectionKey, @Nullable PlanRecording.ConnectionPlans connectionPlans) {
+        return (Connection) Proxy.newProxyInstance(ExplainCache.class.getClassLoader(),
+                new Class[]{Connection.class}, new ConnectionHandler(connection, connectionKey, connectionPlans));
+    }
+
+    static void invalidateAll() {
+        explainCache.invalidateAll();
+    }
+
+    static void invalidateConnection(String connectionKey) {
+        explainCache.asMap().keySet().removeIf(key -> key.startsWith(connectionKey + "\n"));
+    }
+
+    static CacheStats getStats() {
+        return explainCache.stats();
+    }
+
+    static long getSize() {
+        return explainCache.size();
+    }
+
+    static boolean isExplain(String sql) {
+        return sql != null && sql.trim().regionMatches(true, 0, "EXPLAIN", 0, 7);
+    }
+
+    static String getCacheKey(String connectionKey, String sql) {
+        return connectionKey + "\n" + getExplainKey(sql);
+    }
+
+    /**
+     * @return the EXPLAIN with runs of whitespace collapsed, except inside quoted literals and
+     * identifiers where whitespace is significant
+     */
+    static String getExplainKey(String sql) {
+        String trimmedSql = sql.trim();
+        StringBuilder sb = new StringBuilder(trimmedSql.length());
+        char quote = 0;
+        for (int i = 0; i < trimmedSql.length(); i++) {
+            char c = trimmedSql.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == '\\' && i + 1 < trimmedSql.length()) {
+                    sb.append(trimmedSql.charAt(++i)); //escaped character (MySQL); a doubled quote just reopens
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (sb.charAt(sb.length() - 1) != ' ') {
+                    sb.append(' ');
+                }
+            } else {
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static ResultSet executeExplain(String connectionKey, String explainKey,
+                                            @Nullable PlanRecording.ConnectionPlans connectionPlans,
+                                            StatementExecution execution) throws SQLException {
+        String cacheKey = connectionKey + "\n" + explainKey;
+        ExplainResult result = explainCache.getIfPresent(cacheKey);
+        if (result == null && connectionPlans != null && connectionPlans.isReplay()) {
+            result = connectionPlans.replay(explainKey);
+            explainCache.put(cacheKey, result);
+        } else if (result == null) {
+            try (ResultSet resultSet = execution.executeQuery()) {
+                CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+                rowSet.populate(resultSet);
+                result = new ExplainResult(rowSet, null);
+            } catch (SQLException ex) {
+                if (!isQueryError(ex)) {
+                    throw ex; //connection trouble; don't remember it
+                }
+                result = new ExplainResult(null, ex);
+            }
+            explainCache.put(cacheKey, result);
+        }
+        if (connectionPlans != null && !connectionPlans.isReplay()) {
+            connectionPlans.capture(explainKey, result);
+        }
+        return result.toResultSet();
+    }
+
+    private static boolean isQueryError(SQLException ex) {
+        //SQLSTATE class 42: syntax error or access rule violation (unknown table/column, etc.)
+        return ex.getSQLState() != null && ex.getSQLState().startsWith("42");
+    }
+
+    private interface StatementExecution {
+        ResultSet executeQuery() throws SQLException;
+    }
+
+    private static Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+        private final String connectionKey;
+        private final PlanRecording.ConnectionPlans connectionPlans;
+        private boolean closed = false;
+
+        ConnectionHandler(Connection connection, String connectionKey, @Nullable PlanRecording.ConnectionPlans connectionPlans) {
+            this.connection = connection;
+            this.connectionKey = connectionKey;
+            this.connectionPlans = connectionPlans;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    closed = true; //the pool owns the underlying connection
+                    return null;
+                case "isClosed":
+                    return closed || connection.isClosed();
+                case "createStatement":
+                    Statement statement = (Statement) invokeDelegate(connection, method, args);
+                    return Proxy.newProxyInstance(ExplainCache.class.getClassLoader(),
+                            new Class[]{Statement.class}, new StatementHandler(statement, connectionKey, connectionPlans));
+                case "prepareStatement":
+                    PreparedStatement preparedStatement = (PreparedStatement) invokeDelegate(connection, method, args);
+                    String sql = (String) args[0];
+                    if (!isExplain(sql)) {
+                        return preparedStatement;
+                    }
+                    return Proxy.newProxyInstance(ExplainCache.class.getClassLoader(),
+                            new Class[]{PreparedStatement.class}, new PreparedStatementHandler(preparedStatement, connectionKey, connectionPlans, sql));
+                default:
+                    return invokeDelegate(connection, method, args);
+            }
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+        private final String connectionKey;
+        private final PlanRecording.ConnectionPlans connectionPlans;
+        private ResultSet explainResultSet;
+
+        StatementHandler(Statement statement, String connectionKey, @Nullable PlanRecording.ConnectionPlans connectionPlans) {
+            this.statement = statement;
+            this.connectionKey = connectionKey;
+            this.connectionPlans = connectionPlans;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if (methodName.startsWith("execute")) {
+                explainResultSet = null; //results of any later execution come from the delegate
+            }
+            if (args != null && args.length == 1 && args[0] instanceof String && isExplain((String) args[0])) {
+                String sql = (String) args[0];
+                if ("executeQuery".equals(methodName)) {
+                    return executeExplain(connectionKey, getExplainKey(sql), connectionPlans, () -> statement.executeQuery(sql));
+                } else if ("execute".equals(methodName)) {
+                    explainResultSet = executeExplain(connectionKey, getExplainKey(sql), connectionPlans, () -> {
+                        statement.execute(sql);
+                        return statement.getResultSet();
+                    });
+                    return true;
+                }
+            } else if ("getResultSet".equals(methodName) && explainResultSet != null) {
+                return explainResultSet;
+            } else if ("getMoreResults".equals(methodName) && explainResultSet != null) {
+                explainResultSet = null;
+                return false;
+            } else if ("getUpdateCount".equals(methodName) && explainResultSet != null) {
+                return -1;
+            }
+            return invokeDelegate(statement, method, args);
+        }
+    }
+
+    private static class PreparedStatementHandler implements InvocationHandler {
+
+        private final PreparedStatement preparedStatement;
+        private final String connectionKey;
+        private final PlanRecording.ConnectionPlans connectionPlans;
+        private final String sql;
+        private final Map<Integer, String> parameterMap = new TreeMap<>();
+        private ResultSet explainResultSet;
+
+        PreparedStatementHandler(PreparedStatement preparedStatement, String connectionKey,
+                                 @Nullable PlanRecording.ConnectionPlans connectionPlans, String sql) {
+            this.preparedStatement = preparedStatement;
+            this.connectionKey = connectionKey;
+            this.connectionPlans = connectionPlans;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            if (methodName.startsWith("execute")) {
+                explainResultSet = null; //results of any later execution come from the delegate
+            }
+            if (methodName.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameterMap.put((Integer) args[0], String.valueOf(args[1]));
+            } else if ("clearParameters".equals(methodName)) {
+                parameterMap.clear();
+            } else if (args == null && "executeQuery".equals(methodName)) {
+                return executeExplain(connectionKey, getParameterizedExplainKey(), connectionPlans, preparedStatement::executeQuery);
+            } else if (args == null && "execute".equals(methodName)) {
+                explainResultSet = executeExplain(connectionKey, getParameterizedExplainKey(), connectionPlans, () -> {
+                    preparedStatement.execute();
+                    return preparedStatement.getResultSet();
+                });
+                return true;
+            } else if ("getResultSet".equals(methodName) && explainResultSet != null) {
+                return explainResultSet;
+            } else if ("getMoreResults".equals(methodName) && explainResultSet != null) {
+                explainResultSet = null;
+                return false;
+            } else if ("getUpdateCount".equals(methodName) && explainResultSet != null) {
+                return -1;
+            }
+            return invokeDelegate(preparedStatement, method, args);
+        }
+
+        private String getParameterizedExplainKey() {
+            return getExplainKey(sql) + "\n" + parameterMap;
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.FileTypeIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the JNomad analysis over every Java file in the project on parallel workers and
+ * shows the findings grouped by query, so a query run from several places is listed once.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class JNomadAnalyzeProjectTask extends Task.Backgroundable {
+
+    static class QueryFinding {
+
+        private final VirtualFile file;
+        private final String environmentName;
+        private final EnvFileFindings.Finding finding;
+
+        QueryFinding(VirtualFile file, String environmentName, EnvFileFindings.Finding finding) {
+            this.file = file;
+            this.environmentName = environmentName;
+            this.finding = finding;
+        }
+
+        VirtualFile getFile() {
+            return file;
+        }
+
+        String getEnvironmentName() {
+            return environmentName;
+        }
+
+        EnvFileFindings.Finding getFinding() {
+            return finding;
+        }
+    }
+
+    private final Map<String, List<QueryFinding>> queryFindingMap = new TreeMap<>();
+    private int analyzedFileCount;
+
+    JNomadAnalyzeProjectTask(Project project) {
+        super(project, "JNomad: Analyzing project", true);
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+        JNomadProjectService projectService = JNomadProjectService.getInstance(myProject);
+        JNomadPluginConfiguration pluginConfiguration = projectService.getPluginConfiguration();
+        if (!projectService.isJNomadReady() || pluginConfiguration == null) {
+            return;
+        }
+        indicator.setIndeterminate(false);
+        indicator.setText("JNomad: Collecting source files");
+
+        Collection<VirtualFile> javaFiles = DumbService.getInstance(myProject).runReadActionInSmartMode(() ->
+                FileTypeIndex.getFiles(JavaFileType.INSTANCE, GlobalSearchScope.projectScope(myProject)));
+        List<VirtualFile> javaFileList = new ArrayList<>(javaFiles);
+
+        indicator.setText("JNomad: Analyzing " + javaFileList.size() + " files");
+        int workerCount = Math.max(1, pluginConfiguration.getScanThreadCount());
+        ExecutorService projectExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("JNomad Project Analysis", workerCount);
+        AtomicInteger analyzedCount = new AtomicInteger();
+        List<Future<?>> futureList = new ArrayList<>(javaFileList.size());
+        try {
+            for (VirtualFile javaFile : javaFileList) {
+                futureList.add(projectExecutor.submit(() -> ProgressManager.getInstance().executeProcessUnderProgress(() -> {
+                    if (indicator.isCanceled()) {
+                        return;
+                    }
+                    indicator.setText2(javaFile.getPresentableUrl());
+                    try {
+                        CharSequence contents = loadContents(javaFile);
+                        if (contents != null) {
+                            List<EnvFileFindings> fileFindings = projectService.analyzeFile(contents);
+                            addFindings(javaFile, fileFindings, pluginConfiguration.getSlowQueryThreshold());
+                        }
+                    } catch (ProcessCanceledException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        System.out.println("Failed to analyze " + javaFile.getPath() + " - Reason: " + e.getMessage());
+                    }
+                    indicator.setFraction(analyzedCount.incrementAndGet() / (double) javaFileList.size());
+                }, indicator)));
+            }
+            for (Future<?> future : futureList) {
+                awaitWorker(future, indicator);
+            }
+        } finally {
+            for (Future<?> future : futureList) {
+                future.cancel(false);
+            }
+            projectExecutor.shutdown();
+        }
+        analyzedFileCount = analyzedCount.get();
+    }
+
+    private static void awaitWorker(Future<?> future, ProgressIndicator indicator) {
+        while (true) {
+            indicator.checkCanceled();
+            try {
+                future.get(50, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                //keep waiting
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ProcessCanceledException) {
+                    throw (ProcessCanceledException) e.getCause();
+                }
+                e.getCause().printStackTrace();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessCanceledException(e);
+            }
+        }
+    }
+
+    private static CharSequence loadContents(VirtualFile javaFile) {
+        //unsaved editor contents win over what's on disk
+        return ApplicationManager.getApplication().runReadAction((Computable<CharSequence>) () -> {
+            if (!javaFile.isValid()) {
+                return null;
+            }
+            Document document = FileDocumentManager.getInstance().getCachedDocument(javaFile);
+            return document != null ? document.getImmutableCharSequence() : LoadTextUtil.loadText(javaFile);
+        });
+    }
+
+    private synchronized void addFindings(VirtualFile javaFile, List<EnvFileFindings> fileFindings, int slowQueryThreshold) {
+        for (EnvFileFindings findings : fileFindings) {
+            for (EnvFileFindings.Finding finding : findings.getReportedFindingList(slowQueryThreshold)) {
+                String queryKey = finding.getFindingType() + "\n" + finding.getQuery().trim().replaceAll("\\s+", " ");
+                queryFindingMap.computeIfAbsent(queryKey, key -> new ArrayList<>())
+                        .add(new QueryFinding(javaFile, findings.getEnvironmentName(), finding));
+            }
+        }
+    }
+
+    @Override
+    public void onSuccess() {
+        ProjectAnalysisView.show(myProject, analyzedFileCount, queryFindingMap);
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.google.gson.Gson;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch analysis of a project directory for CI:
+ * <pre>
+ * idea jnomad &lt;project dir&gt; --config=&lt;config.json&gt; [--output=&lt;file&gt;] [--format=ndjson|sarif]
+ *                                   [--threads=&lt;count&gt;] [--fail-on-findings]
+ *                                   [--plan-mode=live|capture|replay] [--plan-dir=&lt;dir&gt;]
+ * </pre>
+ * The configuration is the JSON stored by the JNomad Configuration dialog; the plan options
+ * override it so CI can replay plans recorded elsewhere without database access. Findings are
+ * streamed as they're found, the same way the inspection would report them (one per line
+ * and environment). Run with -Djava.awt.headless=true.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class JNomadBatchRunner implements ApplicationStarter {
+
+    private static final int EXIT_FINDINGS = 1;
+    private static final int EXIT_ERROR = 2;
+
+    @Override
+    public String getCommandName() {
+        return "jnomad";
+    }
+
+    @Override
+    public void premain(String[] args) {
+    }
+
+    @Override
+    public void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = run(args);
+        } catch (Exception e) {
+            e.printStackTrace();
+            exitCode = EXIT_ERROR;
+        } finally {
+            DBConnectionPool.shutdownAll();
+            PlanRecording.closeAll();
+            JNomadReportStore.close();
+        }
+        System.exit(exitCode);
+    }
+
+    private static int run(String[] args) throws Exception {
+        String projectDirectory = null;
+        String configFile = null;
+        String outputFile = null;
+        String format = BatchFindingWriter.NDJSON_FORMAT;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        boolean failOnFindings = false;
+        String planMode = null;
+        String planDirectory = null;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--config=")) {
+                configFile = arg.substring("--config=".length());
+            } else if (arg.startsWith("--output=")) {
+                outputFile = arg.substring("--output=".length());
+            } else if (arg.startsWith("--format=")) {
+                format = arg.substring("--format=".length());
+            } else if (arg.startsWith("--threads=")) {
+                threadCount = Math.max(1, Integer.parseInt(arg.substring("--threads=".length())));
+            } else if (arg.equals("--fail-on-findings")) {
+                failOnFindings = true;
+            } else if (arg.startsWith("--plan-mode=")) {
+                planMode = arg.substring("--plan-mode=".length());
+            } else if (arg.startsWith("--plan-dir=")) {
+                planDirectory = arg.substring("--plan-dir=".length());
+            } else if (projectDirectory == null && !arg.startsWith("--")) {
+                projectDirectory = arg;
+            } else {
+                System.err.println("Unknown argument: " + arg);
+                return printUsage();
+            }
+        }
+        if (projectDirectory == null || configFile == null) {
+            return printUsage();
+        }
+
+        //keep diagnostic output (ours and JNomad's) out of the findings stream
+        PrintStream findingOutput = System.out;
+        System.setOut(System.err);
+
+        Path projectPath = Paths.get(projectDirectory).toAbsolutePath().normalize();
+        JNomadPluginConfiguration pluginConfiguration = new Gson().fromJson(
+                new String(Files.readAllBytes(Paths.get(configFile)), StandardCharsets.UTF_8), JNomadPluginConfiguration.class);
+        if (planMode != null) {
+            pluginConfiguration.setPlanMode(JNomadPluginConfiguration.PlanMode.valueOf(planMode.toUpperCase()));
+        }
+        if (planDirectory != null) {
+            pluginConfiguration.setPlanRecordingDirectory(planDirectory);
+        }
+        List<String> sourceDirectoryList = getSourceDirectoryList(projectPath);
+        System.out.println("Indexing " + sourceDirectoryList.size() + " source directories under " + projectPath);
+        JNomadIndexingTask.IndexedSources indexedSources = JNomadIndexingTask.indexSources(
+                sourceDirectoryList, pluginConfiguration, new EmptyProgressIndicator(), null);
+        JNomadProjectService projectService = JNomadProjectService.createHeadless("batch");
+        projectService.start(indexedSources, pluginConfiguration);
+
+        List<Path> javaFileList = new ArrayList<>();
+        for (String sourceDirectory : sourceDirectoryList) {
+            try (Stream<Path> pathStream = Files.walk(Paths.get(sourceDirectory))) {
+                javaFileList.addAll(pathStream.filter(path -> path.toString().endsWith(".java")).collect(Collectors.toList()));
+            }
+        }
+        System.out.println("Analyzing " + javaFileList.size() + " files with " + threadCount + " threads");
+
+        AtomicInteger analyzedCount = new AtomicInteger();
+        AtomicInteger findingCount = new AtomicInteger();
+        Writer writer = new BufferedWriter(outputFile == null ? new OutputStreamWriter(findingOutput, StandardCharsets.UTF_8)
+                : Files.newBufferedWriter(Paths.get(outputFile), StandardCharsets.UTF_8));
+        ExecutorService batchExecutor = Executors.newFixedThreadPool(threadCount);
+        try (BatchFindingWriter findingWriter = BatchFindingWriter.create(format, writer)) {
+            List<Future<?>> futureList = new ArrayList<>();
+            for (Path javaFile : javaFileList) {
+                futureList.add(batchExecutor.submit(() -> {
+                    String relativePath = projectPath.relativize(javaFile).toString().replace(File.separatorChar, '/');
+                    try {
+                        String contents = new String(Files.readAllBytes(javaFile), StandardCharsets.UTF_8);
+                        List<EnvFileFindings> fileFindings = projectService.analyzeFile(contents);
+                        findingCount.addAndGet(writeFindings(findingWriter, relativePath, fileFindings,
+                                pluginConfiguration.getSlowQueryThreshold()));
+                    } catch (Exception e) {
+                        System.err.println("Failed to analyze " + relativePath + " - Reason: " + e.getMessage());
+                    }
+                    int analyzed = analyzedCount.incrementAndGet();
+                    if (analyzed % 500 == 0) {
+                        System.err.println("Analyzed " + analyzed + "/" + javaFileList.size() + " files");
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futureList) {
+                future.get();
+            }
+        } finally {
+            batchExecutor.shutdownNow();
+            projectService.dispose();
+        }
+
+        System.err.println("Done; " + findingCount.get() + " findings in " + analyzedCount.get() + " files");
+        return failOnFindings && findingCount.get() > 0 ? EXIT_FINDINGS : 0;
+    }
+
+    private static int writeFindings(BatchFindingWriter findingWriter, String filePath, List<EnvFileFindings> fileFindings,
+                                     int slowQueryThreshold) throws IOException {
+        int findingCount = 0;
+        for (EnvFileFindings findings : fileFindings) {
+            for (EnvFileFindings.Finding finding : findings.getReportedFindingList(slowQueryThreshold)) {
+                findingWriter.write(filePath, findings.getEnvironmentName(), finding);
+                findingCount++;
+            }
+        }
+        return findingCount;
+    }
+
+    private static List<String> getSourceDirectoryList(Path projectPath) throws IOException {
+        List<String> sourceDirectoryList;
+        try (Stream<Path> pathStream = Files.walk(projectPath)) {
+            sourceDirectoryList = pathStream.filter(Files::isDirectory)
+                    .filter(path -> path.endsWith(Paths.get("src", "main", "java")))
+                    .map(Path::toString)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (sourceDirectoryList.isEmpty()) {
+            sourceDirectoryList.add(projectPath.toString());
+        }
+        return sourceDirectoryList;
+    }
+
+    private static int printUsage() {
+        System.err.println("Usage: jnomad <project dir> --config=<config.json> [--output=<file>] [--format=ndjson|sarif] "
+                + "[--threads=<count>] [--fail-on-findings] [--plan-mode=live|capture|replay] [--plan-dir=<dir>]");
+        return EXIT_ERROR;
+    }
+
+}
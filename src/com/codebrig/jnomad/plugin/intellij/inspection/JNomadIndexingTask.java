@@ -0,0 +1,402 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.codebrig.jnomad.JNomad;
+import com.codebrig.jnomad.SourceCodeTypeSolver;
+import com.codebrig.jnomad.model.SourceCodeExtract;
+import com.codebrig.jnomad.task.extract.extractor.query.QueryLiteralExtractor;
+import com.codebrig.jnomad.task.parse.QueryParser;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiAnnotation;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiModifierList;
+import com.intellij.psi.impl.java.stubs.index.JavaAnnotationIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class JNomadIndexingTask extends Task.Backgroundable {
+
+    private static final String[] ENTITY_ANNOTATION_NAMES = {"Entity", "Embeddable", "MappedSuperclass"};
+    private static final String[] ENTITY_ANNOTATIONS = {"@Entity", "@Embeddable", "@MappedSuperclass"};
+
+    /**
+     * The indexed entity model. Never changed once built; updates build a new one.
+     */
+    static class IndexedSources {
+
+        private final JNomad jnomad;
+        private final Map<String, SourceCodeExtract> entityExtractMap;
+        private final Map<String, HashCode> entityHashMap;
+        private final String modelKey;
+
+        IndexedSources(JNomad jnomad, Map<String, SourceCodeExtract> entityExtractMap, Map<String, HashCode> entityHashMap) {
+            this.jnomad = jnomad;
+            this.entityExtractMap = Collections.unmodifiableMap(new TreeMap<>(entityExtractMap));
+            this.entityHashMap = Collections.unmodifiableMap(new TreeMap<>(entityHashMap));
+            this.modelKey = getModelKey(this.entityHashMap);
+        }
+
+        JNomad getJNomad() {
+            return jnomad;
+        }
+
+        /**
+         * @return scanned entity sources the alias map is parsed from, by path
+         */
+        Map<String, SourceCodeExtract> getEntityExtractMap() {
+            return entityExtractMap;
+        }
+
+        /**
+         * @return content hash of every entity source the alias map is parsed from, by path
+         */
+        Map<String, HashCode> getEntityHashMap() {
+            return entityHashMap;
+        }
+
+        /**
+         * @return fingerprint of the entity sources; persisted findings are keyed by it so ones
+         * translated with an older model aren't served
+         */
+        String getModelKey() {
+            return modelKey;
+        }
+
+        /**
+         * @return a parser holding the entity aliases, for parsing the queries of a single file
+         * into; callers hold the parse lock
+         */
+        QueryParser createQueryParser(SourceCodeExtract fileExtract) {
+            List<SourceCodeExtract> parseList = new ArrayList<>(entityExtractMap.size() + 1);
+            parseList.addAll(entityExtractMap.values());
+            parseList.add(fileExtract);
+            QueryParser queryParser = new QueryParser(jnomad);
+            queryParser.run(parseList);
+            return queryParser;
+        }
+
+        private static String getModelKey(Map<String, HashCode> entityHashMap) {
+            Hasher hasher = Hashing.murmur3_128().newHasher();
+            for (Map.Entry<String, HashCode> entry : entityHashMap.entrySet()) {
+                hasher.putString(entry.getKey(), StandardCharsets.UTF_8).putBytes(entry.getValue().asBytes());
+            }
+            return hasher.hash().toString();
+        }
+    }
+
+    private volatile ProgressIndicator startedIndicator;
+
+    JNomadIndexingTask(Project project) {
+        super(project, "JNomad: Indexing queries", true);
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+        JNomadProjectService projectService = JNomadProjectService.getInstance(myProject);
+        if (!projectService.indexingStarted(indicator)) {
+            return;
+        }
+        startedIndicator = indicator;
+        indicator.setIndeterminate(false);
+        indicator.setText("JNomad: Collecting source directories");
+        indicator.setFraction(0.0);
+
+        //load JNomad plugin configuration
+        JNomadPluginConfiguration pluginConfiguration = getPluginConfiguration(myProject);
+
+        //debug output environments and database connections found in config
+        for (JNomadPluginConfiguration.DBEnvironment env : pluginConfiguration.getEnvironmentList()) {
+            System.out.println("Found environment: " + env.getEnvironmentName() + " - Connections: " + env.getConnectionList().size());
+            for (JNomadPluginConfiguration.DBConnection conn : env.getConnectionList()) {
+                System.out.println("Found connection settings for database: " + conn.getDatabase() + " (Host: " + conn.getHost() + ":" + conn.getPort() + ")");
+            }
+        }
+
+        //.Java source directories
+        List<String> sourceDirectoryList = ApplicationManager.getApplication().runReadAction(
+                (Computable<List<String>>) () -> getSourceDirectoryList(myProject));
+        indicator.setText("JNomad: Locating entity classes");
+        List<File> entityFileList = DumbService.getInstance(myProject).runReadActionInSmartMode(
+                (Computable<List<File>>) () -> getEntityFileList(myProject));
+        IndexedSources indexedSources = indexSources(sourceDirectoryList, pluginConfiguration, indicator, entityFileList);
+        projectService.indexingFinished(indicator, indexedSources, pluginConfiguration, sourceDirectoryList);
+    }
+
+    static JNomadPluginConfiguration getPluginConfiguration(Project project) {
+        PropertiesComponent propertiesComponent = PropertiesComponent.getInstance(project);
+        String configStr = propertiesComponent.getValue("jnomad.plugin.configuration");
+        if (configStr != null) {
+            return new Gson().fromJson(configStr, JNomadPluginConfiguration.class);
+        }
+        return new JNomadPluginConfiguration();
+    }
+
+    /**
+     * @return source files declaring an entity, embeddable or mapped superclass; found through
+     * IntelliJ's annotation stub index so nothing needs to be parsed
+     */
+    static List<File> getEntityFileList(Project project) {
+        GlobalSearchScope projectScope = GlobalSearchScope.projectScope(project);
+        Set<String> entityPathSet = new TreeSet<>();
+        for (String annotationName : ENTITY_ANNOTATION_NAMES) {
+            for (PsiAnnotation annotation : JavaAnnotationIndex.getInstance().get(annotationName, project, projectScope)) {
+                PsiElement owner = annotation.getParent();
+                if (owner instanceof PsiModifierList && owner.getParent() instanceof PsiClass) {
+                    VirtualFile virtualFile = annotation.getContainingFile().getVirtualFile();
+                    if (virtualFile != null && virtualFile.isInLocalFileSystem()) {
+                        entityPathSet.add(new File(virtualFile.getPath()).getAbsolutePath());
+                    }
+                }
+            }
+        }
+
+        List<File> entityFileList = new ArrayList<>(entityPathSet.size());
+        for (String entityPath : entityPathSet) {
+            entityFileList.add(new File(entityPath));
+        }
+        return entityFileList;
+    }
+
+    /**
+     * Builds the type solver and scans the entity classes aliases are parsed from. Without a
+     * list of entity files (headless) they're found by looking for the annotations in the text.
+     */
+    static IndexedSources indexSources(List<String> sourceDirectoryList, JNomadPluginConfiguration pluginConfiguration,
+                                       ProgressIndicator indicator, @Nullable List<File> entityFileList) {
+        JNomad jnomad = createJNomad(sourceDirectoryList, pluginConfiguration, indicator);
+        if (entityFileList == null) {
+            indicator.setText("JNomad: Locating entity classes");
+            entityFileList = findEntitySources(sourceDirectoryList);
+        }
+        return new IndexedSources(jnomad,
+                indexEntityFiles(jnomad, sourceDirectoryList, entityFileList, pluginConfiguration, indicator),
+                hashEntityFiles(entityFileList));
+    }
+
+    /**
+     * @return a JNomad instance with a new type solver over the given source directories
+     */
+    static JNomad createJNomad(List<String> sourceDirectoryList, JNomadPluginConfiguration pluginConfiguration,
+                               ProgressIndicator indicator) {
+        SourceCodeTypeSolver typeSolver = new SourceCodeTypeSolver();
+        for (String sourceDirectory : sourceDirectoryList) {
+            indicator.checkCanceled();
+            typeSolver.addJavaParserTypeSolver(new File(sourceDirectory));
+        }
+
+        //setup JNomad instance
+        JNomad jnomad = new JNomad(typeSolver);
+        jnomad.setScanDirectoryList(sourceDirectoryList);
+        jnomad.setCacheScanResults(false);
+        jnomad.setOffenderReportPercentage(100);
+        jnomad.setIndexPriorityThreshold(pluginConfiguration.getRecommendIndexThreshold());
+        return jnomad;
+    }
+
+    static Map<String, HashCode> hashEntityFiles(List<File> entityFileList) {
+        Map<String, HashCode> entityHashMap = new TreeMap<>();
+        for (File entityFile : entityFileList) {
+            try {
+                entityHashMap.put(entityFile.getAbsolutePath(), Hashing.murmur3_128().hashBytes(Files.readAllBytes(entityFile.toPath())));
+            } catch (IOException e) {
+                System.out.println("Unable to read " + entityFile + " - Reason: " + e.getMessage());
+            }
+        }
+        return entityHashMap;
+    }
+
+    static boolean isEntitySource(String source) {
+        for (String annotation : ENTITY_ANNOTATIONS) {
+            if (source.contains(annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<File> findEntitySources(List<String> sourceDirectoryList) {
+        List<File> entityFileList = new ArrayList<>();
+        for (String sourceDirectory : sourceDirectoryList) {
+            try (Stream<Path> pathStream = Files.walk(Paths.get(sourceDirectory))) {
+                List<Path> javaFileList = pathStream.filter(path -> path.toString().endsWith(".java")).collect(Collectors.toList());
+                for (Path javaFile : javaFileList) {
+                    if (isEntitySource(new String(Files.readAllBytes(javaFile), StandardCharsets.UTF_8))) {
+                        entityFileList.add(javaFile.toFile());
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Unable to read " + sourceDirectory + " - Reason: " + e.getMessage());
+            }
+        }
+        return entityFileList;
+    }
+
+    private static Map<String, SourceCodeExtract> indexEntityFiles(JNomad jnomad, List<String> sourceDirectoryList,
+                                                                    List<File> entityFileList,
+                                                                    JNomadPluginConfiguration pluginConfiguration,
+                                                                    ProgressIndicator indicator) {
+        indicator.checkCanceled();
+        indicator.setText("JNomad: Scanning " + entityFileList.size() + " entity classes");
+        indicator.setFraction(0.1);
+        Map<String, SourceCodeExtract> entityExtractMap;
+        long scanStart = JNomadMetrics.start();
+        //the scan flips JNomad's static state; keep other projects' analysis out until it's done
+        synchronized (JNomadInspection.parseLock) {
+            int scanThreadCount = Math.min(pluginConfiguration.getScanThreadCount(), entityFileList.size());
+            if (scanThreadCount > 1) {
+                QueryLiteralExtractor.isDisabled = true;
+                ForkJoinPool scanPool = new ForkJoinPool(scanThreadCount);
+                try {
+                    entityExtractMap = scanPool.invoke(new ParallelScanTask(
+                            sourceDirectoryList, entityFileList, scanThreadCount, indicator, 0.1, 0.9));
+                } finally {
+                    scanPool.shutdownNow();
+                    QueryLiteralExtractor.isDisabled = false;
+                }
+            } else {
+                entityExtractMap = scanEntityFiles(jnomad, entityFileList, indicator, 0.1, 0.9);
+            }
+        }
+        JNomadMetrics.record(JNomadMetrics.Stage.INDEX_SCAN, scanStart);
+
+        //aliases are parsed from these per analyzed file, into a parser of its own
+        indicator.checkCanceled();
+        indicator.setText2("");
+        indicator.setFraction(1.0);
+        System.out.println("Done scanning " + entityFileList.size() + " entity classes!");
+        return entityExtractMap;
+    }
+
+    /**
+     * Scans the given files for their entity declarations; callers hold the parse lock.
+     *
+     * @return the scanned extracts, by absolute path
+     */
+    static Map<String, SourceCodeExtract> scanEntityFiles(JNomad jnomad, List<File> entityFileList, ProgressIndicator indicator,
+                                                          double startFraction, double endFraction) {
+        Map<String, SourceCodeExtract> entityExtractMap = new TreeMap<>();
+        QueryLiteralExtractor.isDisabled = true;
+        try {
+            for (int i = 0; i < entityFileList.size(); i++) {
+                indicator.checkCanceled();
+                File entityFile = entityFileList.get(i);
+                indicator.setText2(entityFile.getName());
+                indicator.setFraction(startFraction + (endFraction - startFraction) * i / entityFileList.size());
+                try (InputStream inputStream = new FileInputStream(entityFile)) {
+                    entityExtractMap.put(entityFile.getAbsolutePath(), jnomad.scanSingleFile(inputStream));
+                } catch (IOException e) {
+                    System.out.println("Unable to scan " + entityFile + " - Reason: " + e.getMessage());
+                }
+            }
+        } finally {
+            QueryLiteralExtractor.isDisabled = false;
+        }
+        return entityExtractMap;
+    }
+
+    static List<String> getSourceDirectoryList(Project project) {
+        Set<String> sourceDirectorySet = new TreeSet<>();
+        Module[] modules = ModuleManager.getInstance(project).getModules();
+        for (Module module : modules) {
+            VirtualFile[] sourceRoots = ModuleRootManager.getInstance(module).getSourceRoots();
+            if (sourceRoots.length == 0) {
+                sourceDirectorySet.add(getJavaSourceDirectory(new File(module.getModuleFilePath()).getParent()));
+            }
+            for (VirtualFile sourceRoot : sourceRoots) {
+                sourceDirectorySet.add(new File(sourceRoot.getPath()).getAbsolutePath());
+            }
+        }
+        if (modules.length == 0) {
+            sourceDirectorySet.add(getJavaSourceDirectory(project.getBasePath()));
+        }
+
+        //drop directories already covered by a parent directory so no file is scanned twice
+        List<String> sourceDirectoryList = new ArrayList<>();
+        for (String sourceDirectory : sourceDirectorySet) {
+            boolean nested = false;
+            for (String parentDirectory : sourceDirectoryList) {
+                if (sourceDirectory.startsWith(parentDirectory + File.separator)) {
+                    nested = true;
+                    break;
+                }
+            }
+            if (!nested) {
+                sourceDirectoryList.add(sourceDirectory);
+            }
+        }
+        return sourceDirectoryList;
+    }
+
+    private static String getJavaSourceDirectory(String directory) {
+        File srcMainJavaDir = new File(directory, "src/main/java");
+        if (srcMainJavaDir.exists()) {
+            return srcMainJavaDir.getAbsolutePath();
+        }
+        return new File(directory).getAbsolutePath();
+    }
+
+    @Override
+    public void onSuccess() {
+        //re-run inspections which returned early while indexing
+        if (!myProject.isDisposed()) {
+            DaemonCodeAnalyzer.getInstance(myProject).restart();
+        }
+    }
+
+    @Override
+    public void onCancel() {
+        System.out.println("JNomad indexing cancelled!");
+        indexingAborted();
+    }
+
+    @Override
+    public void onThrowable(@NotNull Throwable error) {
+        super.onThrowable(error);
+        indexingAborted();
+    }
+
+    private void indexingAborted() {
+        if (startedIndicator != null && !myProject.isDisposed()) {
+            JNomadProjectService.getInstance(myProject).indexingAborted(startedIndicator);
+        }
+    }
+
+}
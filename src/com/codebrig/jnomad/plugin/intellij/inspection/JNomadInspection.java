@@ -1,177 +1,116 @@
 package com.codebrig.jnomad.plugin.intellij.inspection;
 
-import com.codebrig.jnomad.JNomad;
 import com.codebrig.jnomad.JNomadCLI;
-import com.codebrig.jnomad.SourceCodeTypeSolver;
-import com.codebrig.jnomad.model.FileFullReport;
-import com.codebrig.jnomad.model.SourceCodeExtract;
-import com.codebrig.jnomad.task.explain.adapter.postgres.PostgresDatabaseDataType;
-import com.codebrig.jnomad.task.extract.extractor.query.QueryLiteralExtractor;
-import com.codebrig.jnomad.task.parse.QueryParser;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
-import com.google.common.io.ByteSource;
-import com.google.common.io.ByteStreams;
-import com.google.gson.Gson;
 import com.intellij.codeInsight.daemon.GroupNames;
 import com.intellij.codeInspection.BaseJavaLocalInspectionTool;
 import com.intellij.codeInspection.ProblemsHolder;
-import com.intellij.ide.util.PropertiesComponent;
-import com.intellij.openapi.module.Module;
-import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualFileImpl;
 import com.intellij.psi.PsiElementVisitor;
-import org.apache.commons.io.IOUtils;
+import com.intellij.psi.PsiFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
  */
 class JNomadInspection extends BaseJavaLocalInspectionTool {
 
-    private final static Cache<String, List<EnvFileFullReport>> fileReportCache = CacheBuilder.newBuilder()
-            .expireAfterAccess(5, TimeUnit.MINUTES).build();
-    transient static JNomad jnomad;
-    transient static QueryParser queryParser;
-    transient static boolean setupStarted = false;
-    transient static JNomadPluginConfiguration pluginConfiguration;
+    private static class ContentHash {
 
-    static synchronized void resetJNomadSetup() {
-        JNomadInspection.jnomad = null;
-        setupStarted = false;
-    }
+        private final long modificationStamp;
+        private final int length;
+        private final HashCode hashCode;
 
-    private static synchronized void setupJNomad() {
-        if (JNomadInspection.jnomad != null || setupStarted) {
-            return;
+        ContentHash(long modificationStamp, int length, HashCode hashCode) {
+            this.modificationStamp = modificationStamp;
+            this.length = length;
+            this.hashCode = hashCode;
         }
-        setupStarted = true;
-
-        SourceCodeTypeSolver typeSolver = new SourceCodeTypeSolver();
+    }
 
-        //.Java source directories
-        List<String> sourceDirectoryList = new ArrayList<>();
-        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
-            sourceDirectoryList.add(project.getBasePath());
+    private final static Key<ContentHash> CONTENT_HASH_KEY = Key.create("jnomad.content.hash");
+    //JNomad's scanner and query parser share static state (e.g. QueryLiteralExtractor.isDisabled) across projects
+    final static Object parseLock = new Object();
 
-            ModuleManager instance = ModuleManager.getInstance(project);
-            for (Module module : instance.getModules()) {
-                sourceDirectoryList.add(new File(module.getModuleFilePath()).getParent());
-            }
+    @NotNull
+    @Override
+    public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
+        JNomadProjectService projectService = JNomadProjectService.getInstance(holder.getProject());
+        JNomadPluginConfiguration pluginConfiguration = projectService.getPluginConfiguration();
+        if (!projectService.isJNomadReady() || pluginConfiguration == null) {
+            projectService.setupJNomad();
+            return PsiElementVisitor.EMPTY_VISITOR;
         }
 
-        List<String> tempRemoveList = new ArrayList<>();
-        List<String> tempAddList = new ArrayList<>();
-        for (String sourceDirectory : sourceDirectoryList) {
-            File srcMainJavaDir = new File(sourceDirectory, "src/main/java");
-            if (srcMainJavaDir.exists()) {
-                tempRemoveList.add(sourceDirectory);
-                sourceDirectory = srcMainJavaDir.getAbsolutePath();
-                tempAddList.add(sourceDirectory);
-            }
-
-            typeSolver.addJavaParserTypeSolver(new File(sourceDirectory));
-        }
-        sourceDirectoryList.removeAll(tempRemoveList);
-        sourceDirectoryList.addAll(tempAddList);
-
-        //setup JNomad instance
-        JNomad jnomad = new JNomad(typeSolver);
-        jnomad.setScanDirectoryList(sourceDirectoryList);
-        jnomad.setCacheScanResults(false);
-        jnomad.setOffenderReportPercentage(100);
-
-        //load JNomad plugin configuration
-        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
-            PropertiesComponent propertiesComponent = PropertiesComponent.getInstance(project);
-            String configStr = propertiesComponent.getValue("jnomad.plugin.configuration");
-            if (configStr != null) {
-                pluginConfiguration = new Gson().fromJson(configStr, JNomadPluginConfiguration.class);
-            }
+        List<EnvFileFindings> fileFindings;
+        VirtualFile virtualFile = holder.getFile().getVirtualFile();
+        int slowQueryThreshold = pluginConfiguration.getSlowQueryThreshold();
+        if (virtualFile.getPath().endsWith("java") && virtualFile instanceof VirtualFileImpl) {
+            CharSequence contents = holder.getFile().getViewProvider().getContents();
+            fileFindings = projectService.getFileFindings(holder.getFile(), contents, isOnTheFly);
+            return new JNomadQueryVisitor(holder, slowQueryThreshold, fileFindings.toArray(new EnvFileFindings[0]));
         }
+        return new JNomadQueryVisitor(holder, slowQueryThreshold, (EnvFileFindings[]) null);
+    }
 
-        if (pluginConfiguration == null) {
-            pluginConfiguration = new JNomadPluginConfiguration();
+    static HashCode getContentHash(PsiFile psiFile, CharSequence charSequence) {
+        //unchanged since the last pass; skip hashing
+        long modificationStamp = psiFile.getModificationStamp();
+        ContentHash cachedHash = psiFile.getUserData(CONTENT_HASH_KEY);
+        if (cachedHash != null && cachedHash.modificationStamp == modificationStamp
+                && cachedHash.length == charSequence.length()) {
+            return cachedHash.hashCode;
         }
 
-        //debug output environments and database connections found in config
-        for (JNomadPluginConfiguration.DBEnvironment env : pluginConfiguration.getEnvironmentList()) {
-            System.out.println("Found environment: " + env.getEnvironmentName() + " - Connections: " + env.getConnectionList().size());
-            for (JNomadPluginConfiguration.DBConnection conn : env.getConnectionList()) {
-                System.out.println("Found connection settings for database: " + conn.getDatabase() + " (Host: " + conn.getHost() + ":" + conn.getPort() + ")");
-            }
-        }
-        jnomad.setIndexPriorityThreshold(pluginConfiguration.getRecommendIndexThreshold());
-
-        System.out.println("Scanning all files!");
-        QueryLiteralExtractor.isDisabled = true;
-        jnomad.scanAllFiles();
-        queryParser = new QueryParser(jnomad);
-        queryParser.run();
-        JNomadInspection.jnomad = jnomad;
-        QueryLiteralExtractor.isDisabled = false;
-        System.out.println("Done scanning all files!");
+        HashCode contentHash = getContentHash(charSequence);
+        psiFile.putUserData(CONTENT_HASH_KEY, new ContentHash(modificationStamp, charSequence.length(), contentHash));
+        return contentHash;
     }
 
-    @NotNull
-    @Override
-    public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
-        if (JNomadInspection.jnomad == null) {
-            setupJNomad();
-        }
+    static HashCode getContentHash(CharSequence charSequence) {
+        //hashes the chars in place; no String/byte[] copies of the file
+        return Hashing.murmur3_128().hashUnencodedChars(charSequence);
+    }
 
-        List<EnvFileFullReport> fileFullReports;
-        VirtualFile virtualFile = holder.getFile().getVirtualFile();
-        if (virtualFile.getPath().endsWith("java") && virtualFile instanceof VirtualFileImpl) {
-            CharSequence contents = holder.getFile().getViewProvider().getContents();
-            fileFullReports = getFileFullReports(contents);
-            return new JNomadQueryVisitor(holder, holder.getFile().getVirtualFile(), fileFullReports.toArray(new EnvFileFullReport[0]));
+    static <T> T awaitResult(Future<T> future) throws Exception {
+        while (true) {
+            ProgressManager.checkCanceled();
+            try {
+                return future.get(50, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                //keep waiting
+            }
         }
-        return new JNomadQueryVisitor(holder, holder.getFile().getVirtualFile(), null);
     }
 
-    private static synchronized List<EnvFileFullReport> getFileFullReports(CharSequence charSequence) {
-        List<EnvFileFullReport> fileReports = new ArrayList<>();
-        try {
-            InputStream virtualFile = IOUtils.toInputStream(charSequence, "UTF-8");
-            String md5Hash = ByteSource.wrap(ByteStreams.toByteArray(virtualFile)).hash(Hashing.md5()).toString();
-            fileReports = fileReportCache.getIfPresent(md5Hash);
-            virtualFile.reset();
-
-            if (fileReports == null && JNomadInspection.jnomad != null) { //no cache; load file from disk
-                fileReports = new ArrayList<>();
-                QueryLiteralExtractor.isDisabled = false;
-                SourceCodeExtract extract = JNomadInspection.jnomad.scanSingleFile(virtualFile);
-                if (extract.getQueryLiteralExtractor().getQueryFound()) {
-                    List<SourceCodeExtract> scanList = Collections.singletonList(extract);
-                    queryParser.run(scanList);
-
-                    for (JNomadPluginConfiguration.DBEnvironment env : pluginConfiguration.getEnvironmentList()) {
-                        for (JNomadPluginConfiguration.DBConnection conn : env.getConnectionList()) {
-                            EnvFileFullReport envReport = new EnvFileFullReport(null, JNomadInspection.jnomad, conn.getDataType(), queryParser.getAliasMap(), scanList, conn.toConnection());
-                            envReport.setEnvironment(env);
-                            fileReports.add(envReport);
-                        }
-                    }
-                    fileReportCache.put(md5Hash, fileReports);
+    static <T> T awaitResult(Future<T> future, long timeoutMillis) throws ExecutionException, TimeoutException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            ProgressManager.checkCanceled();
+            try {
+                return future.get(Math.min(50, Math.max(0, deadline - System.currentTimeMillis())), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (System.currentTimeMillis() >= deadline) {
+                    throw e;
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessCanceledException(e);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return fileReports;
     }
 
     @Override
@@ -206,7 +145,7 @@ class JNomadInspection extends BaseJavaLocalInspectionTool {
     @Override
     public void cleanup(@NotNull Project project) {
         super.cleanup(project);
-        if (jnomad != null) jnomad.closeCache();
+        JNomadProjectService.getInstance(project).cleanup();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,314 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.google.common.cache.CacheStats;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms for each stage of the analysis pipeline (per environment where it
+ * applies) and counters for the caches in front of it. Shown in the JNomad Metrics tool
+ * window and exported over JMX.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class JNomadMetrics {
+
+    static final String OBJECT_NAME = "com.codebrig.jnomad.plugin:type=Metrics";
+
+    enum Stage {
+        INDEX_SCAN, FILE_ANALYSIS, SCAN_FILE, PARSE_QUERIES, ENVIRONMENT_REPORT
+    }
+
+    enum Counter {
+        NO_QUERY_FILTER_HIT, SHIFTED_FINDINGS_REUSED, STORED_FINDINGS_HIT, STORED_FINDINGS_MISS, CONNECTION_TIMEOUT
+    }
+
+    /**
+     * Buckets are powers of two in milliseconds; the last bucket holds everything slower.
+     */
+    static class LatencyHistogram {
+
+        private static final int BUCKET_COUNT = 18;
+        private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        LatencyHistogram() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = millis == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(millis));
+            buckets[bucket].increment();
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMeanMillis() {
+            long count = getCount();
+            return count == 0 ? 0 : totalNanos.sum() / (double) count / 1_000_000;
+        }
+
+        double getMaxMillis() {
+            return maxNanos.get() / 1_000_000.0;
+        }
+
+        /**
+         * @return upper bound (in milliseconds) of the bucket holding the given percentile
+         */
+        long getPercentileMillis(double percentile) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+                seen += buckets[i].sum();
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return (long) Math.ceil(getMaxMillis());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fms p50<=%dms p95<=%dms p99<=%dms max=%.1fms", getCount(), getMeanMillis(),
+                    getPercentileMillis(0.5), getPercentileMillis(0.95), getPercentileMillis(0.99), getMaxMillis());
+        }
+    }
+
+    private static final ConcurrentMap<String, LatencyHistogram> histogramMap = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Counter, LongAdder> counterMap = new ConcurrentHashMap<>();
+
+    static long start() {
+        return System.nanoTime();
+    }
+
+    static void record(Stage stage, long startNanos) {
+        record(stage.name(), startNanos);
+    }
+
+    static void record(Stage stage, String environmentName, long startNanos) {
+        record(stage.name() + " [" + environmentName + "]", startNanos);
+    }
+
+    private static void record(String histogramName, long startNanos) {
+        histogramMap.computeIfAbsent(histogramName, name -> new LatencyHistogram()).record(System.nanoTime() - startNanos);
+    }
+
+    static void increment(Counter counter) {
+        counterMap.computeIfAbsent(counter, c -> new LongAdder()).increment();
+    }
+
+    static long getCount(Counter counter) {
+        LongAdder adder = counterMap.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    static Map<String, LatencyHistogram> getHistogramMap() {
+        return new TreeMap<>(histogramMap);
+    }
+
+    static void reset() {
+        histogramMap.clear();
+        counterMap.clear();
+    }
+
+    static List<String> getCacheSummaryList() {
+        List<String> summaryList = new ArrayList<>();
+        summaryList.add(formatCacheStats("File report cache", JNomadProjectService.getFileReportCacheStats(),
+                JNomadProjectService.getFileReportCacheSize()) + String.format(" weight=%dKB/%dKB",
+                JNomadProjectService.getFileReportCacheWeight() / 1024, JNomadProjectService.getFileReportCacheMaximumWeight() / 1024));
+        summaryList.add(formatCacheStats("EXPLAIN cache", ExplainCache.getStats(), ExplainCache.getSize()));
+        summaryList.add("No-query filter: size=" + JNomadProjectService.getNoQueryFilterSize()
+                + " hits=" + getCount(Counter.NO_QUERY_FILTER_HIT));
+        summaryList.add("Shifted findings reused: " + getCount(Counter.SHIFTED_FINDINGS_REUSED));
+        summaryList.add("Stored findings: hits=" + getCount(Counter.STORED_FINDINGS_HIT)
+                + " misses=" + getCount(Counter.STORED_FINDINGS_MISS));
+        summaryList.add("Connection timeouts: " + getCount(Counter.CONNECTION_TIMEOUT));
+        return summaryList;
+    }
+
+    static List<String> getStageSummaryList() {
+        List<String> summaryList = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : getHistogramMap().entrySet()) {
+            summaryList.add(entry.getKey() + ": " + entry.getValue());
+        }
+        return summaryList;
+    }
+
+    static List<String> getPoolSummaryList() {
+        List<String> summaryList = new ArrayList<>();
+        for (DBConnectionPool pool : DBConnectionPool.getPoolList()) {
+            summaryList.add(pool.getDatabase() + ": in use=" + (pool.getMaximumSize() - pool.getAvailableCount())
+                    + "/" + pool.getMaximumSize() + " idle=" + pool.getIdleCount());
+        }
+        return summaryList;
+    }
+
+    static String getReport() {
+        StringBuilder sb = new StringBuilder();
+        appendSection(sb, "Stage latency", getStageSummaryList());
+        appendSection(sb, "Caches", getCacheSummaryList());
+        appendSection(sb, "Connection pools", getPoolSummaryList());
+        return sb.toString();
+    }
+
+    private static void appendSection(StringBuilder sb, String title, List<String> lineList) {
+        sb.append(title).append('\n');
+        if (lineList.isEmpty()) {
+            sb.append("  (none)\n");
+        }
+        for (String line : lineList) {
+            sb.append("  ").append(line).append('\n');
+        }
+        sb.append('\n');
+    }
+
+    private static String formatCacheStats(String name, CacheStats stats, long size) {
+        return String.format("%s: size=%d hits=%d misses=%d hitRate=%.2f evictions=%d", name, size,
+                stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount());
+    }
+
+    static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(new JNomadMetricsMBeanImpl(), JNomadMetricsMBean.class), objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class JNomadMetricsMBeanImpl implements JNomadMetricsMBean {
+
+        @Override
+        public String[] getStageLatencies() {
+            return getStageSummaryList().toArray(new String[0]);
+        }
+
+        @Override
+        public String[] getConnectionPools() {
+            return getPoolSummaryList().toArray(new String[0]);
+        }
+
+        @Override
+        public long getFileReportCacheHitCount() {
+            return JNomadProjectService.getFileReportCacheStats().hitCount();
+        }
+
+        @Override
+        public long getFileReportCacheMissCount() {
+            return JNomadProjectService.getFileReportCacheStats().missCount();
+        }
+
+        @Override
+        public long getFileReportCacheEvictionCount() {
+            return JNomadProjectService.getFileReportCacheStats().evictionCount();
+        }
+
+        @Override
+        public long getFileReportCacheSize() {
+            return JNomadProjectService.getFileReportCacheSize();
+        }
+
+        @Override
+        public long getFileReportCacheWeight() {
+            return JNomadProjectService.getFileReportCacheWeight();
+        }
+
+        @Override
+        public long getFileReportCacheMaximumWeight() {
+            return JNomadProjectService.getFileReportCacheMaximumWeight();
+        }
+
+        @Override
+        public long getExplainCacheHitCount() {
+            return ExplainCache.getStats().hitCount();
+        }
+
+        @Override
+        public long getExplainCacheMissCount() {
+            return ExplainCache.getStats().missCount();
+        }
+
+        @Override
+        public long getExplainCacheEvictionCount() {
+            return ExplainCache.getStats().evictionCount();
+        }
+
+        @Override
+        public long getExplainCacheSize() {
+            return ExplainCache.getSize();
+        }
+
+        @Override
+        public int getNoQueryFilterSize() {
+            return JNomadProjectService.getNoQueryFilterSize();
+        }
+
+        @Override
+        public long getNoQueryFilterHitCount() {
+            return getCount(Counter.NO_QUERY_FILTER_HIT);
+        }
+
+        @Override
+        public long getStoredFindingsHitCount() {
+            return getCount(Counter.STORED_FINDINGS_HIT);
+        }
+
+        @Override
+        public long getStoredFindingsMissCount() {
+            return getCount(Counter.STORED_FINDINGS_MISS);
+        }
+
+        @Override
+        public long getConnectionTimeoutCount() {
+            return getCount(Counter.CONNECTION_TIMEOUT);
+        }
+
+        @Override
+        public void reset() {
+            JNomadMetrics.reset();
+        }
+    }
+
+}
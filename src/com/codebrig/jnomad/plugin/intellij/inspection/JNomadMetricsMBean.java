@@ -0,0 +1,46 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+/**
+ * JMX view of JNomadMetrics; registered as com.codebrig.jnomad.plugin:type=Metrics.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public interface JNomadMetricsMBean {
+
+    String[] getStageLatencies();
+
+    String[] getConnectionPools();
+
+    long getFileReportCacheHitCount();
+
+    long getFileReportCacheMissCount();
+
+    long getFileReportCacheEvictionCount();
+
+    long getFileReportCacheSize();
+
+    long getFileReportCacheWeight();
+
+    long getFileReportCacheMaximumWeight();
+
+    long getExplainCacheHitCount();
+
+    long getExplainCacheMissCount();
+
+    long getExplainCacheEvictionCount();
+
+    long getExplainCacheSize();
+
+    int getNoQueryFilterSize();
+
+    long getNoQueryFilterHitCount();
+
+    long getStoredFindingsHitCount();
+
+    long getStoredFindingsMissCount();
+
+    long getConnectionTimeoutCount();
+
+    void reset();
+
+}
@@ -0,0 +1,73 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tool window showing JNomadMetrics; refreshed every couple seconds while visible.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class JNomadMetricsToolWindowFactory implements ToolWindowFactory {
+
+    private static final int REFRESH_INTERVAL_MILLIS = 2000;
+
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        JTextArea metricsTextArea = new JTextArea();
+        AtomicBoolean refreshing = new AtomicBoolean();
+        metricsTextArea.setEditable(false);
+        metricsTextArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, metricsTextArea.getFont().getSize()));
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            JNomadMetrics.reset();
+            refreshReport(metricsTextArea, refreshing);
+        });
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttonPanel.add(resetButton);
+
+        JPanel metricsPanel = new JPanel(new BorderLayout());
+        metricsPanel.add(buttonPanel, BorderLayout.NORTH);
+        metricsPanel.add(new JBScrollPane(metricsTextArea), BorderLayout.CENTER);
+
+        Timer refreshTimer = new Timer(REFRESH_INTERVAL_MILLIS, e -> {
+            if (metricsPanel.isShowing()) {
+                refreshReport(metricsTextArea, refreshing);
+            }
+        });
+        refreshTimer.setInitialDelay(0);
+        refreshTimer.start();
+
+        Content content = ContentFactory.SERVICE.getInstance().createContent(metricsPanel, "", false);
+        Disposer.register(content, refreshTimer::stop);
+        toolWindow.getContentManager().addContent(content);
+    }
+
+    private static void refreshReport(JTextArea metricsTextArea, AtomicBoolean refreshing) {
+        //the report walks every project's caches; build it off the EDT, one refresh at a time
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            try {
+                String report = JNomadMetrics.getReport();
+                ApplicationManager.getApplication().invokeLater(() -> metricsTextArea.setText(report));
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,261 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.codebrig.jnomad.JNomad;
+import com.codebrig.jnomad.model.SourceCodeExtract;
+import com.codebrig.jnomad.task.extract.extractor.query.QueryLiteralExtractor;
+import com.google.common.hash.HashCode;
+import com.intellij.ProjectTopics;
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the project model built by JNomadIndexingTask current without re-indexing.
+ * Saved entity classes are re-scanned, and when a module's source roots change the type
+ * solver is rebuilt over them (and new roots scanned). The model in use is never changed;
+ * each update builds a new one and swaps it into the project service.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class JNomadModelUpdater implements BulkFileListener {
+
+    private static final long UPDATE_DELAY_MILLIS = 1000;
+    private final JNomadProjectService projectService;
+    private final Project project;
+    private final Set<String> pendingFileSet = new LinkedHashSet<>();
+    private final List<String> sourceDirectoryList = new ArrayList<>();
+    private volatile boolean indexed = false;
+    private final Object updateLock = new Object();
+    private boolean rootsChanged = false;
+    private ScheduledFuture<?> updateFuture;
+
+    JNomadModelUpdater(JNomadProjectService projectService, Project project) {
+        this.projectService = projectService;
+        this.project = project;
+    }
+
+    void install(Disposable parentDisposable) {
+        project.getMessageBus().connect(parentDisposable).subscribe(VirtualFileManager.VFS_CHANGES, this);
+        project.getMessageBus().connect(parentDisposable).subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootListener() {
+            @Override
+            public void beforeRootsChange(ModuleRootEvent event) {
+            }
+
+            @Override
+            public void rootsChanged(ModuleRootEvent event) {
+                scheduleUpdate(null, true);
+            }
+        });
+    }
+
+    synchronized void modelIndexed(List<String> sourceDirectoryList) {
+        indexed = true;
+        this.sourceDirectoryList.clear();
+        this.sourceDirectoryList.addAll(sourceDirectoryList);
+    }
+
+    synchronized void reset() {
+        indexed = false;
+        sourceDirectoryList.clear();
+        pendingFileSet.clear();
+        rootsChanged = false;
+        if (updateFuture != null) {
+            updateFuture.cancel(false);
+            updateFuture = null;
+        }
+    }
+
+    @Override
+    public void before(@NotNull List<? extends VFileEvent> events) {
+    }
+
+    @Override
+    public void after(@NotNull List<? extends VFileEvent> events) {
+        if (!indexed) {
+            return; //not indexed yet; indexing reads everything from disk
+        }
+        for (VFileEvent event : events) {
+            if (event instanceof VFileContentChangeEvent || event instanceof VFileCreateEvent
+                    || event instanceof VFileMoveEvent || event instanceof VFileCopyEvent
+                    || event instanceof VFileDeleteEvent) {
+                String path = event.getPath();
+                if (path.endsWith(".java")) {
+                    scheduleUpdate(new File(path).getAbsolutePath(), false);
+                }
+            }
+        }
+    }
+
+    private synchronized void scheduleUpdate(String filePath, boolean rootsChanged) {
+        if (!indexed) {
+            return;
+        }
+        if (filePath != null) {
+            if (!isInSourceDirectory(filePath)) {
+                return;
+            }
+            pendingFileSet.add(filePath);
+        }
+        this.rootsChanged |= rootsChanged;
+
+        //batch bursts of events (save all, VCS update) into a single update
+        if (updateFuture == null) {
+            updateFuture = JobScheduler.getScheduler().schedule(() -> AppExecutorUtil.getAppExecutorService().execute(
+                    this::runUpdate), UPDATE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runUpdate() {
+        List<String> changedFileList;
+        boolean updateRoots;
+        synchronized (this) {
+            updateFuture = null;
+            changedFileList = new ArrayList<>(pendingFileSet);
+            pendingFileSet.clear();
+            updateRoots = rootsChanged;
+            rootsChanged = false;
+        }
+
+        //one update at a time; each builds on the model the last one swapped in
+        synchronized (updateLock) {
+            JNomadIndexingTask.IndexedSources indexedSources = projectService.getIndexedSources();
+            JNomadPluginConfiguration pluginConfiguration = projectService.getPluginConfiguration();
+            if (!indexed || indexedSources == null) {
+                return;
+            }
+
+            try {
+                Map<String, SourceCodeExtract> entityExtractMap = new TreeMap<>(indexedSources.getEntityExtractMap());
+                Map<String, HashCode> entityHashMap = new TreeMap<>(indexedSources.getEntityHashMap());
+                JNomad jnomad = indexedSources.getJNomad();
+                boolean modelChanged = false;
+                if (updateRoots) {
+                    JNomad rootsJNomad = updateSourceDirectories(pluginConfiguration, entityExtractMap, entityHashMap);
+                    if (rootsJNomad != null) {
+                        jnomad = rootsJNomad;
+                        modelChanged = true;
+                    }
+                }
+                for (String filePath : changedFileList) {
+                    modelChanged |= rescanEntityFile(filePath, jnomad, entityExtractMap, entityHashMap);
+                }
+                if (modelChanged) {
+                    projectService.modelUpdated(indexedSources,
+                            new JNomadIndexingTask.IndexedSources(jnomad, entityExtractMap, entityHashMap));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return JNomad with a type solver over the current source roots; null when they haven't changed
+     */
+    private JNomad updateSourceDirectories(JNomadPluginConfiguration pluginConfiguration,
+                                           Map<String, SourceCodeExtract> entityExtractMap,
+                                           Map<String, HashCode> entityHashMap) {
+        List<String> currentDirectoryList = ApplicationManager.getApplication().runReadAction(
+                (Computable<List<String>>) () -> JNomadIndexingTask.getSourceDirectoryList(project));
+        List<String> newDirectoryList = new ArrayList<>();
+        synchronized (this) {
+            for (String sourceDirectory : currentDirectoryList) {
+                if (!sourceDirectoryList.contains(sourceDirectory)) {
+                    newDirectoryList.add(sourceDirectory);
+                }
+            }
+            if (newDirectoryList.isEmpty() && currentDirectoryList.containsAll(sourceDirectoryList)) {
+                return null;
+            }
+            sourceDirectoryList.clear();
+            sourceDirectoryList.addAll(currentDirectoryList);
+        }
+
+        //entities under removed roots leave the model; only those under new roots are scanned
+        entityExtractMap.keySet().removeIf(entityPath -> !isInSourceDirectory(entityPath));
+        entityHashMap.keySet().removeIf(entityPath -> !isInSourceDirectory(entityPath));
+        List<File> entityFileList = new ArrayList<>();
+        for (File entityFile : DumbService.getInstance(project).runReadActionInSmartMode(
+                (Computable<List<File>>) () -> JNomadIndexingTask.getEntityFileList(project))) {
+            for (String sourceDirectory : newDirectoryList) {
+                if (entityFile.getPath().startsWith(sourceDirectory + File.separator)) {
+                    entityFileList.add(entityFile);
+                    break;
+                }
+            }
+        }
+
+        //the published type solver is left alone; analysis still running keeps resolving with it
+        System.out.println("Source directories changed; added: " + newDirectoryList);
+        JNomad jnomad = JNomadIndexingTask.createJNomad(currentDirectoryList, pluginConfiguration, new EmptyProgressIndicator());
+        synchronized (JNomadInspection.parseLock) {
+            entityExtractMap.putAll(JNomadIndexingTask.scanEntityFiles(jnomad, entityFileList, new EmptyProgressIndicator(), 0.0, 1.0));
+        }
+        entityHashMap.putAll(JNomadIndexingTask.hashEntityFiles(entityFileList));
+        return jnomad;
+    }
+
+    private boolean rescanEntityFile(String filePath, JNomad jnomad, Map<String, SourceCodeExtract> entityExtractMap,
+                                     Map<String, HashCode> entityHashMap) throws IOException {
+        File file = new File(filePath);
+        if (!file.isFile() || !JNomadIndexingTask.isEntitySource(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8))) {
+            //deleted, or no longer declares an entity
+            entityHashMap.remove(filePath);
+            return entityExtractMap.remove(filePath) != null;
+        }
+
+        //the changed entity replaces the one from the last scan
+        synchronized (JNomadInspection.parseLock) {
+            QueryLiteralExtractor.isDisabled = true;
+            try (InputStream inputStream = new FileInputStream(file)) {
+                entityExtractMap.put(filePath, jnomad.scanSingleFile(inputStream));
+            } finally {
+                QueryLiteralExtractor.isDisabled = false;
+            }
+        }
+        entityHashMap.putAll(JNomadIndexingTask.hashEntityFiles(Collections.singletonList(file)));
+        return true;
+    }
+
+    private synchronized boolean isInSourceDirectory(String path) {
+        for (String sourceDirectory : sourceDirectoryList) {
+            if (path.startsWith(sourceDirectory + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
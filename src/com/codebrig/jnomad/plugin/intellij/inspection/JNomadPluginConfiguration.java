@@ -5,7 +5,9 @@ import com.codebrig.jnomad.task.explain.adapter.DatabaseAdapterType;
 import com.codebrig.jnomad.task.explain.adapter.postgres.MysqlDatabaseDataType;
 import com.codebrig.jnomad.task.explain.adapter.postgres.PostgresDatabaseDataType;
 import com.google.gson.Gson;
+import com.intellij.openapi.application.PathManager;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -106,6 +108,10 @@ public class JNomadPluginConfiguration {
             this.databaseType = databaseType;
         }
 
+        public String getCacheKey() {
+            return databaseType + "://" + username + "@" + host + ":" + port + "/" + database;
+        }
+
         public String toString() {
             return "Connection: " + host + ":" + port + "/" + database;
         }
@@ -140,9 +146,25 @@ public class JNomadPluginConfiguration {
         }
     }
 
+    /**
+     * LIVE explains against the databases; CAPTURE does the same and records every plan;
+     * REPLAY answers from the recordings without connecting.
+     */
+    enum PlanMode {
+        LIVE, CAPTURE, REPLAY
+    }
+
     private List<DBEnvironment> environmentList;
     private int slowQueryThreshold = 100;
     private int recommendIndexThreshold = 50;
+    private int scanThreadCount = 0;
+    private int connectionPoolSize = 4;
+    private int connectionTimeout = 60;
+    private int schemaPollInterval = 60;
+    private int analysisDelay = 300;
+    private int reportCacheMemoryBudget = 64;
+    private PlanMode planMode = PlanMode.LIVE;
+    private String planRecordingDirectory;
 
     public List<DBEnvironment> getEnvironmentList() {
         if (environmentList == null) {
@@ -171,6 +193,82 @@ public class JNomadPluginConfiguration {
         this.recommendIndexThreshold = recommendIndexThreshold;
     }
 
+    public int getScanThreadCount() {
+        if (scanThreadCount <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return scanThreadCount;
+    }
+
+    public void setScanThreadCount(int scanThreadCount) {
+        this.scanThreadCount = scanThreadCount;
+    }
+
+    public int getConnectionPoolSize() {
+        return Math.max(1, connectionPoolSize);
+    }
+
+    public void setConnectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public int getSchemaPollInterval() {
+        return Math.max(1, schemaPollInterval);
+    }
+
+    public void setSchemaPollInterval(int schemaPollInterval) {
+        this.schemaPollInterval = schemaPollInterval;
+    }
+
+    public int getAnalysisDelay() {
+        return analysisDelay;
+    }
+
+    public void setAnalysisDelay(int analysisDelay) {
+        this.analysisDelay = analysisDelay;
+    }
+
+    /**
+     * @return megabytes the in-memory file report cache may hold
+     */
+    public int getReportCacheMemoryBudget() {
+        return Math.max(1, reportCacheMemoryBudget);
+    }
+
+    public void setReportCacheMemoryBudget(int reportCacheMemoryBudget) {
+        this.reportCacheMemoryBudget = reportCacheMemoryBudget;
+    }
+
+    public PlanMode getPlanMode() {
+        if (planMode == null) {
+            return PlanMode.LIVE;
+        }
+        return planMode;
+    }
+
+    public void setPlanMode(PlanMode planMode) {
+        this.planMode = planMode;
+    }
+
+    public String getPlanRecordingDirectory() {
+        if (planRecordingDirectory == null || planRecordingDirectory.isEmpty()) {
+            return PathManager.getSystemPath() + File.separator + "jnomad" + File.separator + "plans";
+        }
+        return planRecordingDirectory;
+    }
+
+    public void setPlanRecordingDirectory(String planRecordingDirectory) {
+        this.planRecordingDirectory = planRecordingDirectory;
+    }
+
     public String toString() {
         return new Gson().toJson(this);
     }
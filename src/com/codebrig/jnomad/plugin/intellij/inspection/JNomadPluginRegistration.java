@@ -7,6 +7,7 @@ import com.intellij.openapi.components.ApplicationComponent;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.DialogBuilder;
 import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.ui.Messages;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Objects;
@@ -47,20 +48,48 @@ public class JNomadPluginRegistration implements ApplicationComponent {
 
                     PropertiesComponent propertiesComponent = PropertiesComponent.getInstance(project);
                     propertiesComponent.setValue("jnomad.plugin.configuration", new Gson().toJson(pluginConfiguration));
-                    JNomadInspection.resetJNomadSetup();
+                    JNomadProjectService.getInstance(project).reloadConfiguration(pluginConfiguration);
                 }
             }
         };
         am.registerAction("JNomadPluginAction", action);
 
+        AnAction analyzeProjectAction = new AnAction("JNomad: Analyze Project") {
+            @Override
+            public void actionPerformed(AnActionEvent anActionEvent) {
+                Project project = Objects.requireNonNull(anActionEvent.getData(PlatformDataKeys.PROJECT));
+                JNomadProjectService projectService = JNomadProjectService.getInstance(project);
+                if (!projectService.isJNomadReady()) {
+                    projectService.setupJNomad();
+                    Messages.showInfoMessage(project, "JNomad is still indexing queries. Try again once indexing finishes.",
+                            "JNomad: Analyze Project");
+                    return;
+                }
+                new JNomadAnalyzeProjectTask(project).queue();
+            }
+
+            @Override
+            public void update(AnActionEvent anActionEvent) {
+                anActionEvent.getPresentation().setEnabled(anActionEvent.getData(PlatformDataKeys.PROJECT) != null);
+            }
+        };
+        am.registerAction("JNomadAnalyzeProjectAction", analyzeProjectAction);
+
         //add to analyze menu
         DefaultActionGroup windowM = (DefaultActionGroup) am.getAction("AnalyzeMenu");
         windowM.addSeparator();
         windowM.add(action);
+        windowM.add(analyzeProjectAction);
+
+        JNomadMetrics.registerMBean();
     }
 
     @Override
     public void disposeComponent() {
+        JNomadMetrics.unregisterMBean();
+        DBConnectionPool.shutdownAll();
+        PlanRecording.closeAll();
+        JNomadReportStore.close();
     }
 
 }
\ No newline at end of file
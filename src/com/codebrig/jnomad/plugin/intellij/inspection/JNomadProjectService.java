@@ -0,0 +1,690 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.codebrig.jnomad.model.SourceCodeExtract;
+import com.codebrig.jnomad.task.extract.extractor.query.QueryLiteralExtractor;
+import com.codebrig.jnomad.task.parse.QueryParser;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import gnu.trove.TIntIntHashMap;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * The JNomad engine of a single project: its indexed model, configuration, caches, database
+ * connection pools and schema tracking. Projects are indexed and analyzed independently of
+ * each other and everything held here is released when the project closes. EXPLAIN results,
+ * persisted findings and plan recordings are keyed by database and stay application-wide.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class JNomadProjectService implements Disposable {
+
+    private static class PreviousAnalysis {
+
+        private final JNomadPluginConfiguration.PlanMode planMode;
+        private final QueryCallLayout callLayout;
+        private final List<EnvFileFindings> fileFindings;
+        private final boolean complete;
+
+        PreviousAnalysis(JNomadPluginConfiguration.PlanMode planMode, QueryCallLayout callLayout,
+                         List<EnvFileFindings> fileFindings, boolean complete) {
+            this.planMode = planMode;
+            this.callLayout = callLayout;
+            this.fileFindings = fileFindings;
+            this.complete = complete;
+        }
+    }
+
+    private static final Set<JNomadProjectService> serviceSet = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private final Project project;
+    private final String ownerName;
+    private final ConcurrentMap<String, CompletableFuture<List<EnvFileFindings>>> inFlightFileFindings = new ConcurrentHashMap<>();
+    private final ExecutorService analysisExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "JNomad Analysis", Math.max(4, Runtime.getRuntime().availableProcessors()));
+    private final Cache<String, PreviousAnalysis> previousAnalysisCache = CacheBuilder.newBuilder()
+            .maximumSize(200).build();
+    private final Cache<String, EnvFileFindings> partialFindingsCache = CacheBuilder.newBuilder()
+            .maximumSize(1000).build();
+    private final AnalysisScheduler analysisScheduler = new AnalysisScheduler(AppExecutorUtil.getAppExecutorService());
+    private final NoQueryFileFilter noQueryFileFilter = new NoQueryFileFilter(500_000);
+    private final SchemaFingerprintTracker schemaTracker = new SchemaFingerprintTracker(this);
+    private final JNomadModelUpdater modelUpdater;
+    private volatile int fileReportCacheBudget = new JNomadPluginConfiguration().getReportCacheMemoryBudget();
+    private volatile Cache<String, List<EnvFileFindings>> fileReportCache = createFileReportCache(fileReportCacheBudget);
+    private volatile JNomadIndexingTask.IndexedSources indexedSources;
+    private volatile JNomadPluginConfiguration pluginConfiguration;
+    private boolean setupStarted = false;
+    private ProgressIndicator setupIndicator;
+
+    public JNomadProjectService(Project project) {
+        this(project, project.getLocationHash());
+    }
+
+    private JNomadProjectService(@Nullable Project project, String ownerName) {
+        this.project = project;
+        this.ownerName = ownerName;
+        if (project != null) {
+            //keep the indexed alias map and type solver current as files and source roots change
+            modelUpdater = new JNomadModelUpdater(this, project);
+            modelUpdater.install(this);
+        } else {
+            modelUpdater = null;
+        }
+        serviceSet.add(this);
+    }
+
+    static JNomadProjectService getInstance(Project project) {
+        return ServiceManager.getService(project, JNomadProjectService.class);
+    }
+
+    /**
+     * @return an engine not tied to any project, for headless batch analysis
+     */
+    static JNomadProjectService createHeadless(String ownerName) {
+        return new JNomadProjectService(null, ownerName);
+    }
+
+    String getOwnerName() {
+        return ownerName;
+    }
+
+    JNomadIndexingTask.IndexedSources getIndexedSources() {
+        return indexedSources;
+    }
+
+    JNomadPluginConfiguration getPluginConfiguration() {
+        return pluginConfiguration;
+    }
+
+    boolean isJNomadReady() {
+        return indexedSources != null;
+    }
+
+    synchronized void setupJNomad() {
+        if (indexedSources != null || setupStarted || project == null) {
+            return;
+        }
+        setupStarted = true;
+
+        //index in background; inspections return early until indexing finishes
+        ApplicationManager.getApplication().invokeLater(() -> {
+            if (!project.isDisposed()) {
+                new JNomadIndexingTask(project).queue();
+            }
+        });
+    }
+
+    synchronized boolean indexingStarted(ProgressIndicator indicator) {
+        if (!setupStarted || setupIndicator != null) {
+            return false; //reset or already indexing
+        }
+        setupIndicator = indicator;
+        return true;
+    }
+
+    synchronized void indexingFinished(ProgressIndicator indicator, JNomadIndexingTask.IndexedSources indexedSources,
+                                       JNomadPluginConfiguration pluginConfiguration, List<String> sourceDirectoryList) {
+        if (setupIndicator != indicator) {
+            return; //superseded by reset
+        }
+        start(indexedSources, pluginConfiguration);
+        if (modelUpdater != null) {
+            modelUpdater.modelIndexed(sourceDirectoryList);
+        }
+        setupIndicator = null;
+    }
+
+    /**
+     * Indexing was cancelled or failed; the next inspection pass starts it over.
+     */
+    synchronized void indexingAborted(ProgressIndicator indicator) {
+        if (setupIndicator != indicator) {
+            return; //superseded by reset
+        }
+        setupIndicator = null;
+        setupStarted = false;
+    }
+
+    /**
+     * Makes the indexed sources available for analysis.
+     */
+    synchronized void start(JNomadIndexingTask.IndexedSources indexedSources, JNomadPluginConfiguration pluginConfiguration) {
+        this.pluginConfiguration = pluginConfiguration;
+        this.indexedSources = indexedSources;
+        configureFileReportCache(pluginConfiguration);
+        schemaTracker.start(pluginConfiguration);
+    }
+
+    synchronized void resetJNomadSetup() {
+        if (setupIndicator != null) {
+            setupIndicator.cancel();
+            setupIndicator = null;
+        }
+        indexedSources = null;
+        setupStarted = false;
+        analysisScheduler.cancelAll();
+        previousAnalysisCache.invalidateAll();
+        partialFindingsCache.invalidateAll();
+        schemaTracker.stop();
+        DBConnectionPool.shutdownAll(ownerName);
+        PlanRecording.saveAll();
+        if (modelUpdater != null) {
+            modelUpdater.reset();
+        }
+    }
+
+    synchronized void reloadConfiguration(JNomadPluginConfiguration pluginConfiguration) {
+        if (indexedSources == null) {
+            resetJNomadSetup(); //indexing reads the configuration when it starts
+            return;
+        }
+
+        //the indexed model doesn't depend on the configuration; only the database side is rebuilt
+        analysisScheduler.cancelAll();
+        schemaTracker.stop();
+        DBConnectionPool.shutdownAll(ownerName);
+        PlanRecording.saveAll();
+        indexedSources.getJNomad().setIndexPriorityThreshold(pluginConfiguration.getRecommendIndexThreshold());
+        this.pluginConfiguration = pluginConfiguration;
+        configureFileReportCache(pluginConfiguration);
+        fileReportCache.invalidateAll();
+        partialFindingsCache.invalidateAll();
+        previousAnalysisCache.invalidateAll();
+        schemaTracker.start(pluginConfiguration);
+        restartDaemon();
+    }
+
+    void schemaChanged(String previousSchemaKey) {
+        //findings cached under the old fingerprint no longer apply
+        fileReportCache.invalidateAll();
+        partialFindingsCache.invalidateAll();
+        previousAnalysisCache.invalidateAll();
+        ExplainCache.invalidateConnection(previousSchemaKey);
+        JNomadReportStore.removeSchema(previousSchemaKey);
+        restartDaemon();
+    }
+
+    /**
+     * Swaps in a model rebuilt from the given one; analysis already running keeps the model it
+     * started with.
+     *
+     * @return false when the project was re-indexed or reset since; the update is dropped
+     */
+    synchronized boolean modelUpdated(JNomadIndexingTask.IndexedSources previousSources,
+                                      JNomadIndexingTask.IndexedSources indexedSources) {
+        if (this.indexedSources != previousSources) {
+            return false;
+        }
+        this.indexedSources = indexedSources;
+        modelChanged();
+        return true;
+    }
+
+    private void modelChanged() {
+        //entity aliases feed every file's translated queries
+        fileReportCache.invalidateAll();
+        partialFindingsCache.invalidateAll();
+        previousAnalysisCache.invalidateAll();
+        restartDaemon();
+    }
+
+    private void restartDaemon() {
+        if (project == null) {
+            return;
+        }
+        ApplicationManager.getApplication().invokeLater(() -> {
+            if (!project.isDisposed()) {
+                DaemonCodeAnalyzer.getInstance(project).restart();
+            }
+        });
+    }
+
+    /**
+     * Closes JNomad's scan cache and every pooled connection this project owns. Called from
+     * the inspection's cleanup, when IntelliJ stops using the inspection (it's disabled, the
+     * profile changes or the project closes), not after each pass; pools reopen on demand.
+     */
+    void cleanup() {
+        JNomadIndexingTask.IndexedSources indexedSources = this.indexedSources;
+        if (indexedSources != null) indexedSources.getJNomad().closeCache();
+        DBConnectionPool.shutdownAll(ownerName);
+    }
+
+    @Override
+    public void dispose() {
+        serviceSet.remove(this);
+        resetJNomadSetup();
+        analysisExecutor.shutdownNow();
+        fileReportCache.invalidateAll();
+    }
+
+    /**
+     * Rebuilds the file report cache when the configured memory budget (in megabytes) changes.
+     */
+    private synchronized void configureFileReportCache(JNomadPluginConfiguration pluginConfiguration) {
+        int memoryBudget = pluginConfiguration.getReportCacheMemoryBudget();
+        if (memoryBudget != fileReportCacheBudget) {
+            fileReportCacheBudget = memoryBudget;
+            fileReportCache = createFileReportCache(memoryBudget);
+        }
+    }
+
+    static Cache<String, List<EnvFileFindings>> createFileReportCache(int memoryBudget) {
+        //weighed by estimated retained bytes; soft values let the GC reclaim entries before the budget is reached
+        return CacheBuilder.newBuilder()
+                .maximumWeight(memoryBudget * 1024L * 1024L)
+                .weigher(JNomadProjectService::getRetainedSize)
+                .softValues()
+                .recordStats()
+                .build();
+    }
+
+    private static int getRetainedSize(String fileHash, List<EnvFileFindings> fileFindings) {
+        long retainedSize = 64 + 2L * fileHash.length() + 16 + 8L * fileFindings.size();
+        for (EnvFileFindings findings : fileFindings) {
+            retainedSize += findings.getRetainedSize();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, retainedSize);
+    }
+
+    /**
+     * @return file report cache stats summed over every open project
+     */
+    static CacheStats getFileReportCacheStats() {
+        CacheStats stats = new CacheStats(0, 0, 0, 0, 0, 0);
+        for (JNomadProjectService service : serviceSet) {
+            stats = stats.plus(service.fileReportCache.stats());
+        }
+        return stats;
+    }
+
+    static long getFileReportCacheSize() {
+        long size = 0;
+        for (JNomadProjectService service : serviceSet) {
+            size += service.fileReportCache.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return estimated bytes retained by the file report caches; weighs every entry, so keep it off the EDT
+     */
+    static long getFileReportCacheWeight() {
+        long weight = 0;
+        for (JNomadProjectService service : serviceSet) {
+            for (Map.Entry<String, List<EnvFileFindings>> entry : service.fileReportCache.asMap().entrySet()) {
+                weight += getRetainedSize(entry.getKey(), entry.getValue());
+            }
+        }
+        return weight;
+    }
+
+    static long getFileReportCacheMaximumWeight() {
+        long maximumWeight = 0;
+        for (JNomadProjectService service : serviceSet) {
+            maximumWeight += service.fileReportCacheBudget * 1024L * 1024L;
+        }
+        return maximumWeight;
+    }
+
+    static int getNoQueryFilterSize() {
+        int size = 0;
+        for (JNomadProjectService service : serviceSet) {
+            size += service.noQueryFileFilter.size();
+        }
+        return size;
+    }
+
+    List<EnvFileFindings> getFileFindings(PsiFile psiFile, CharSequence charSequence, boolean isOnTheFly) {
+        try {
+            JNomadIndexingTask.IndexedSources indexedSources = this.indexedSources;
+            JNomadPluginConfiguration pluginConfiguration = this.pluginConfiguration;
+            if (indexedSources == null || pluginConfiguration == null) {
+                return new ArrayList<>();
+            }
+
+            HashCode contentHash = JNomadInspection.getContentHash(psiFile, charSequence);
+            String fileKey = getFileKey(contentHash, pluginConfiguration);
+            List<EnvFileFindings> fileFindings = fileReportCache.getIfPresent(fileKey);
+            if (fileFindings != null) {
+                return fileFindings;
+            } else if (noQueryFileFilter.contains(contentHash.asLong())) {
+                JNomadMetrics.increment(JNomadMetrics.Counter.NO_QUERY_FILTER_HIT);
+                return new ArrayList<>();
+            }
+
+            //incremental; when the file runs the same queries as last time only their lines moved. Shifted
+            //findings only cover the inspected query calls, so they're kept out of the shared cache
+            //(project analysis reads it) and later edits keep shifting from the full analysis
+            String filePath = psiFile.getVirtualFile().getPath();
+            QueryCallLayout callLayout = QueryCallLayout.of(psiFile);
+            fileFindings = getShiftedFileFindings(filePath, callLayout, pluginConfiguration.getPlanMode());
+            if (fileFindings != null) {
+                JNomadMetrics.increment(JNomadMetrics.Counter.SHIFTED_FINDINGS_REUSED);
+                return fileFindings;
+            }
+
+            if (isOnTheFly) {
+                //debounced; show what's still valid from the last analysis until this one finishes
+                analysisScheduler.schedule(psiFile, fileKey, pluginConfiguration.getAnalysisDelay(), () -> {
+                    //re-highlight once complete, or when more environments answered than before
+                    int answeredCount = getAnsweredCount(fileKey, pluginConfiguration);
+                    getSharedFileFindings(contentHash, charSequence, filePath, callLayout, indexedSources, pluginConfiguration);
+                    return fileReportCache.getIfPresent(fileKey) != null
+                            || getAnsweredCount(fileKey, pluginConfiguration) > answeredCount;
+                });
+                return getLastGoodFileFindings(filePath, callLayout, pluginConfiguration.getPlanMode());
+            }
+            return getSharedFileFindings(contentHash, charSequence, filePath, callLayout, indexedSources, pluginConfiguration);
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Analyzes file contents outside of an inspection pass; shares the inspection's caches.
+     */
+    List<EnvFileFindings> analyzeFile(CharSequence charSequence) throws Exception {
+        JNomadIndexingTask.IndexedSources indexedSources = this.indexedSources;
+        JNomadPluginConfiguration pluginConfiguration = this.pluginConfiguration;
+        if (indexedSources == null) {
+            return new ArrayList<>();
+        }
+
+        HashCode contentHash = JNomadInspection.getContentHash(charSequence);
+        List<EnvFileFindings> fileFindings = fileReportCache.getIfPresent(getFileKey(contentHash, pluginConfiguration));
+        if (fileFindings != null) {
+            return fileFindings;
+        } else if (noQueryFileFilter.contains(contentHash.asLong())) {
+            JNomadMetrics.increment(JNomadMetrics.Counter.NO_QUERY_FILTER_HIT);
+            return new ArrayList<>();
+        }
+        return computeFileFindings(contentHash, charSequence, indexedSources, pluginConfiguration);
+    }
+
+    private List<EnvFileFindings> getSharedFileFindings(HashCode contentHash, CharSequence charSequence, String filePath,
+                                                        QueryCallLayout callLayout, JNomadIndexingTask.IndexedSources indexedSources,
+                                                        JNomadPluginConfiguration pluginConfiguration) throws Exception {
+        //single-flight; concurrent requests for the same content share one computation
+        String fileKey = getFileKey(contentHash, pluginConfiguration);
+        CompletableFuture<List<EnvFileFindings>> future = new CompletableFuture<>();
+        CompletableFuture<List<EnvFileFindings>> inFlight;
+        while ((inFlight = inFlightFileFindings.putIfAbsent(fileKey, future)) != null) {
+            try {
+                return JNomadInspection.awaitResult(inFlight);
+            } catch (CancellationException e) {
+                //the pass computing it was cancelled; not a failure, compute it here instead
+            }
+        }
+        try {
+            List<EnvFileFindings> fileFindings = fileReportCache.getIfPresent(fileKey);
+            if (fileFindings == null) {
+                long analysisStart = JNomadMetrics.start();
+                fileFindings = computeFileFindings(contentHash, charSequence, indexedSources, pluginConfiguration);
+                JNomadMetrics.record(JNomadMetrics.Stage.FILE_ANALYSIS, analysisStart);
+            }
+            //environments that answered stay last-good even while others time out
+            boolean complete = fileReportCache.getIfPresent(fileKey) == fileFindings;
+            if (!callLayout.isEmpty() && (complete || !fileFindings.isEmpty())) {
+                previousAnalysisCache.put(filePath, new PreviousAnalysis(
+                        pluginConfiguration.getPlanMode(), callLayout, fileFindings, complete));
+            }
+            future.complete(fileFindings);
+            return fileFindings;
+        } catch (ProcessCanceledException ex) {
+            future.cancel(false);
+            throw ex;
+        } catch (Throwable ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlightFileFindings.remove(fileKey, future);
+        }
+    }
+
+    private List<EnvFileFindings> getLastGoodFileFindings(String filePath, QueryCallLayout callLayout,
+                                                          JNomadPluginConfiguration.PlanMode planMode) {
+        PreviousAnalysis previousAnalysis = previousAnalysisCache.getIfPresent(filePath);
+        List<EnvFileFindings> fileFindings = new ArrayList<>();
+        if (previousAnalysis != null && previousAnalysis.planMode == planMode) {
+            TIntIntHashMap lineMapping = callLayout.getPartialLineMapping(previousAnalysis.callLayout);
+            for (EnvFileFindings findings : previousAnalysis.fileFindings) {
+                fileFindings.add(findings.remapLines(lineMapping));
+            }
+        }
+        return fileFindings;
+    }
+
+    @Nullable
+    private List<EnvFileFindings> getShiftedFileFindings(String filePath, QueryCallLayout callLayout,
+                                                         JNomadPluginConfiguration.PlanMode planMode) {
+        //findings from another plan mode would skip recording (or replaying) the plans behind them
+        PreviousAnalysis previousAnalysis = previousAnalysisCache.getIfPresent(filePath);
+        if (previousAnalysis == null || previousAnalysis.planMode != planMode || !previousAnalysis.complete
+                || callLayout.isEmpty()) {
+            return null;
+        }
+        TIntIntHashMap lineMapping = callLayout.getLineMapping(previousAnalysis.callLayout);
+        if (lineMapping == null) {
+            return null;
+        }
+
+        List<EnvFileFindings> fileFindings = new ArrayList<>(previousAnalysis.fileFindings.size());
+        for (EnvFileFindings findings : previousAnalysis.fileFindings) {
+            fileFindings.add(findings.remapLines(lineMapping));
+        }
+        return fileFindings;
+    }
+
+    private List<EnvFileFindings> computeFileFindings(HashCode contentHash, CharSequence charSequence,
+                                                      JNomadIndexingTask.IndexedSources indexedSources,
+                                                      JNomadPluginConfiguration pluginConfiguration) throws Exception {
+        String fileHash = contentHash.toString();
+        String fileKey = getFileKey(contentHash, pluginConfiguration);
+
+        //no memory cache; try findings persisted by a previous session
+        List<EnvFileFindings> fileFindings = getStoredFileFindings(fileHash, indexedSources.getModelKey(), pluginConfiguration);
+        if (fileFindings != null) {
+            fileReportCache.put(fileKey, fileFindings);
+            return fileFindings;
+        }
+
+        //no cache; load file from disk
+        fileFindings = new ArrayList<>();
+        SourceCodeExtract extract;
+        List<SourceCodeExtract> scanList;
+        QueryParser queryParser;
+        Map<String, SourceCodeExtract> failedParseQueries;
+        synchronized (JNomadInspection.parseLock) {
+            //JNomad's scanner and query parser hold shared state; parsing is serialized, reports run concurrently
+            QueryLiteralExtractor.isDisabled = false;
+            long scanStart = JNomadMetrics.start();
+            //scanned from text even when the inspection has the PSI; JNomad can't build an extract from another AST
+            extract = indexedSources.getJNomad().scanSingleFile(IOUtils.toInputStream(charSequence, "UTF-8"));
+            JNomadMetrics.record(JNomadMetrics.Stage.SCAN_FILE, scanStart);
+            if (!extract.getQueryLiteralExtractor().getQueryFound()) {
+                noQueryFileFilter.add(contentHash.asLong());
+                return fileFindings;
+            }
+            scanList = Collections.singletonList(extract);
+
+            //parsed into a parser of its own, so nothing changes the alias map its reports translate with
+            long parseStart = JNomadMetrics.start();
+            queryParser = indexedSources.createQueryParser(extract);
+            JNomadMetrics.record(JNomadMetrics.Stage.PARSE_QUERIES, parseStart);
+            failedParseQueries = new HashMap<>(queryParser.getFailedQueries());
+        }
+
+        //analyze every environment connection concurrently; ones that answered a previous try are kept
+        List<Future<EnvFileFindings>> futureList = new ArrayList<>();
+        List<JNomadPluginConfiguration.DBConnection> connectionList = new ArrayList<>();
+        for (JNomadPluginConfiguration.DBEnvironment env : pluginConfiguration.getEnvironmentList()) {
+            for (JNomadPluginConfiguration.DBConnection conn : env.getConnectionList()) {
+                EnvFileFindings answered = partialFindingsCache.getIfPresent(getPartialKey(fileKey, connectionList.size()));
+                if (answered != null) {
+                    futureList.add(CompletableFuture.completedFuture(answered));
+                } else {
+                    futureList.add(analysisExecutor.submit(() -> getEnvFileFindings(
+                            fileHash, env, conn, indexedSources, queryParser, scanList, failedParseQueries, pluginConfiguration)));
+                }
+                connectionList.add(conn);
+            }
+        }
+
+        boolean complete = true;
+        List<EnvFileFindings> answeredList = new ArrayList<>(futureList.size());
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(pluginConfiguration.getConnectionTimeout());
+        for (int i = 0; i < futureList.size(); i++) {
+            Future<EnvFileFindings> future = futureList.get(i);
+            answeredList.add(null);
+            try {
+                EnvFileFindings findings = JNomadInspection.awaitResult(future, Math.max(0, deadline - System.currentTimeMillis()));
+                fileFindings.add(findings);
+                answeredList.set(i, findings);
+            } catch (ProcessCanceledException e) {
+                //nobody will read the remaining reports; stop them holding connections
+                for (int j = i; j < futureList.size(); j++) {
+                    futureList.get(j).cancel(true);
+                }
+                throw e;
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                complete = false;
+                JNomadMetrics.increment(JNomadMetrics.Counter.CONNECTION_TIMEOUT);
+                System.out.println("Timed out analyzing file against " + connectionList.get(i));
+            } catch (ExecutionException e) {
+                complete = false;
+                e.getCause().printStackTrace();
+            }
+        }
+        for (int i = 0; i < answeredList.size(); i++) {
+            String partialKey = getPartialKey(fileKey, i);
+            if (complete) {
+                partialFindingsCache.invalidate(partialKey);
+            } else if (answeredList.get(i) != null) {
+                partialFindingsCache.put(partialKey, answeredList.get(i));
+            }
+        }
+        if (complete) {
+            fileReportCache.put(fileKey, fileFindings);
+        }
+        return fileFindings;
+    }
+
+    private static String getPartialKey(String fileKey, int connectionIndex) {
+        return fileKey + "|" + connectionIndex;
+    }
+
+    private int getAnsweredCount(String fileKey, JNomadPluginConfiguration pluginConfiguration) {
+        int connectionCount = 0;
+        for (JNomadPluginConfiguration.DBEnvironment env : pluginConfiguration.getEnvironmentList()) {
+            connectionCount += env.getConnectionList().size();
+        }
+        int answeredCount = 0;
+        for (int i = 0; i < connectionCount; i++) {
+            if (partialFindingsCache.getIfPresent(getPartialKey(fileKey, i)) != null) {
+                answeredCount++;
+            }
+        }
+        return answeredCount;
+    }
+
+    private EnvFileFindings getEnvFileFindings(String fileHash, JNomadPluginConfiguration.DBEnvironment env,
+                                               JNomadPluginConfiguration.DBConnection conn,
+                                               JNomadIndexingTask.IndexedSources indexedSources,
+                                               QueryParser queryParser, List<SourceCodeExtract> scanList,
+                                               Map<String, SourceCodeExtract> failedParseQueries,
+                                               JNomadPluginConfiguration pluginConfiguration) throws SQLException {
+        String schemaKey = schemaTracker.getSchemaKey(conn);
+        String storeKey = JNomadReportStore.getStoreKey(
+                fileHash, env, schemaKey, indexedSources.getModelKey(), pluginConfiguration.getRecommendIndexThreshold());
+        PlanRecording.ConnectionPlans connectionPlans = PlanRecording.getConnectionPlans(pluginConfiguration, env, conn);
+        boolean capturing = connectionPlans != null && !connectionPlans.isReplay();
+        EnvFileFindings findings = capturing ? null : JNomadReportStore.get(storeKey); //capture needs the EXPLAINs to run
+        if (findings == null) {
+            DBConnectionPool connectionPool = null;
+            Connection connection;
+            if (connectionPlans != null && connectionPlans.isReplay()) {
+                connection = PlanRecording.createReplayConnection(conn);
+            } else {
+                connectionPool = DBConnectionPool.getPool(ownerName, conn, pluginConfiguration.getConnectionPoolSize());
+                connection = connectionPool.borrow();
+            }
+            try {
+                long reportStart = JNomadMetrics.start();
+                Connection explainConnection = ExplainCache.wrap(connection, schemaKey, connectionPlans);
+                EnvFileFullReport envReport = new EnvFileFullReport(null, indexedSources.getJNomad(), conn.getDataType(),
+                        queryParser.getAliasMap(), scanList, explainConnection);
+                envReport.setEnvironment(env);
+                findings = EnvFileFindings.fromReport(envReport, scanList, failedParseQueries);
+                JNomadMetrics.record(JNomadMetrics.Stage.ENVIRONMENT_REPORT, env.getEnvironmentName(), reportStart);
+            } finally {
+                if (connectionPool != null) {
+                    connectionPool.release(connection);
+                }
+            }
+            JNomadReportStore.put(storeKey, findings);
+        }
+        return findings;
+    }
+
+    /**
+     * @return key of the file's findings in memory; findings computed in one plan mode never
+     * stand in for another, so capturing re-runs every file's EXPLAINs at least once
+     */
+    static String getFileKey(HashCode contentHash, JNomadPluginConfiguration pluginConfiguration) {
+        return contentHash + "|" + pluginConfiguration.getPlanMode();
+    }
+
+    @Nullable
+    private List<EnvFileFindings> getStoredFileFindings(String contentHash, String modelKey,
+                                                        JNomadPluginConfiguration pluginConfiguration) {
+        if (pluginConfiguration.getPlanMode() == JNomadPluginConfiguration.PlanMode.CAPTURE) {
+            return null; //capture needs the EXPLAINs to run
+        }
+        List<EnvFileFindings> fileFindings = new ArrayList<>();
+        int recommendIndexThreshold = pluginConfiguration.getRecommendIndexThreshold();
+        for (JNomadPluginConfiguration.DBEnvironment env : pluginConfiguration.getEnvironmentList()) {
+            for (JNomadPluginConfiguration.DBConnection conn : env.getConnectionList()) {
+                EnvFileFindings findings = JNomadReportStore.get(JNomadReportStore.getStoreKey(
+                        contentHash, env, schemaTracker.getSchemaKey(conn), modelKey, recommendIndexThreshold));
+                if (findings == null) {
+                    JNomadMetrics.increment(JNomadMetrics.Counter.STORED_FINDINGS_MISS);
+                    return null;
+                }
+                fileFindings.add(findings);
+            }
+        }
+        if (fileFindings.isEmpty()) {
+            return null;
+        }
+        JNomadMetrics.increment(JNomadMetrics.Counter.STORED_FINDINGS_HIT);
+        return fileFindings;
+    }
+
+}
@@ -1,22 +1,12 @@
 package com.codebrig.jnomad.plugin.intellij.inspection;
 
-import com.codebrig.jnomad.model.QueryScore;
-import com.codebrig.jnomad.model.RecommendedIndex;
-import com.codebrig.jnomad.model.SourceCodeExtract;
-import com.codebrig.jnomad.task.explain.QueryIndexReport;
-import com.github.javaparser.Range;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.openapi.util.TextRange;
-import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.List;
-import java.util.Map;
 import java.util.StringTokenizer;
 
 /**
@@ -28,87 +18,88 @@ public class JNomadQueryVisitor extends JavaElementVisitor {
     private static final String CHECKED_CLASSES = "javax.persistence.Query;javax.persistence.TypedQuery;java.sql.PreparedStatement";
 
     private final ProblemsHolder holder;
-    private final VirtualFile virtualFile;
-    private final EnvFileFullReport[] fileFullReports;
+    private final int slowQueryThreshold;
+    private final EnvFileFindings[] fileFindings;
+    private LineIndex lineIndex;
 
-    JNomadQueryVisitor(ProblemsHolder holder, VirtualFile virtualFile, EnvFileFullReport... fileFullReports) {
+    JNomadQueryVisitor(ProblemsHolder holder, int slowQueryThreshold, EnvFileFindings... fileFindings) {
         this.holder = holder;
-        this.virtualFile = virtualFile;
-        this.fileFullReports = fileFullReports;
+        this.slowQueryThreshold = slowQueryThreshold;
+        this.fileFindings = fileFindings;
     }
 
     @Override
     public void visitMethodCallExpression(PsiMethodCallExpression expression) {
         super.visitMethodCallExpression(expression);
-        if (fileFullReports == null || fileFullReports.length == 0 || JNomadInspection.jnomad == null) {
+        if (fileFindings == null || fileFindings.length == 0) {
             return;
         }
 
-        for (EnvFileFullReport fullReport : fileFullReports) {
-            addEnvironmentProblems(expression, fullReport);
+        for (EnvFileFindings findings : fileFindings) {
+            addEnvironmentProblems(expression, findings);
         }
     }
 
-    private void addEnvironmentProblems(PsiMethodCallExpression expression, EnvFileFullReport fileFullReport) {
-        String methodCallName = expression.getMethodExpression().getReferenceName();
-        if (isCheckedType(expression.getType()) && methodCallName != null && methodCallName.toLowerCase().contains("query")) {
-            int lineNumber = getLineNumber(this.virtualFile, expression.getTextRange());
-
-            //recommend indexes
-            for (QueryScore queryScore : fileFullReport.getQueryScoreList()) {
-                if ((lineNumber == queryScore.getQueryLocation().begin.line || lineNumber == queryScore.getQueryLocation().end.line)) {
-                    for (RecommendedIndex rIndex : fileFullReport.getRecommendedIndexList()) {
-                        if (rIndex.isIndexAffect(queryScore.getOriginalQuery())) {
-                            holder.registerProblem(expression.getArgumentList(),
-                                    "ENV: " + fileFullReport.getEnvironment().getEnvironmentName() + " - Missing index detected! Recommended Index: " + rIndex.getIndexCreateSQL()
-                                            + "\nIndex Priority: " + rIndex.getIndexPriority());
-                            System.out.println("ENV: " + fileFullReport.getEnvironment().getEnvironmentName() + " - Registered missing index to expression: " + expression + " - Line number: " + lineNumber);
-                            return;
-                        }
-                    }
-                }
-            }
+    private void addEnvironmentProblems(PsiMethodCallExpression expression, EnvFileFindings findings) {
+        if (isQueryCall(expression)) {
+            int lineNumber = getLineNumber(expression.getTextRange());
+            String environmentName = findings.getEnvironmentName();
 
-            //slow queries
-            for (QueryScore queryScore : fileFullReport.getQueryScoreList()) {
-                if ((lineNumber == queryScore.getQueryLocation().begin.line || lineNumber == queryScore.getQueryLocation().end.line)
-                        && queryScore.getScore() >= JNomadInspection.pluginConfiguration.getSlowQueryThreshold()) {
-                    holder.registerProblem(expression.getArgumentList(), "ENV: " + fileFullReport.getEnvironment().getEnvironmentName() + " - Slow query detected! Query score: " + queryScore.getScore());
-                    System.out.println("ENV: " + fileFullReport.getEnvironment().getEnvironmentName() + " - Registered slow query to expression: " + expression + " - Line number: " + lineNumber);
-                    return;
-                }
+            EnvFileFindings.Finding finding = getReportedFinding(findings.getLineFindings(lineNumber), slowQueryThreshold);
+            if (finding == null) {
+                return;
             }
 
-            //failed queries
-            Map<String, SourceCodeExtract> failedParseQueries = JNomadInspection.queryParser.getFailedQueries();
-            QueryIndexReport indexReport = fileFullReport.getQueryIndexReport();
-            List<String> failedQueryParseList = indexReport.getFailedQueryParseList();
-            failedQueryParseList.addAll(failedParseQueries.keySet());
-
-            for (String failedQuery : failedQueryParseList) {
-                SourceCodeExtract sourceCodeExtract = failedParseQueries.get(failedQuery);
-                if (sourceCodeExtract == null) {
-                    sourceCodeExtract = indexReport.getSourceCodeExtractMap().get(failedQuery);
-                }
-                if (sourceCodeExtract != null) {
-                    Range failedQueryRange = sourceCodeExtract.getQueryLiteralExtractor().getQueryCallRange(failedQuery);
-                    if (lineNumber == failedQueryRange.begin.line || lineNumber == failedQueryRange.end.line) {
-                        String reason = indexReport.getFailedQueryReason(failedQuery);
-                        if (reason == null) {
-                            reason = "Failed to parse query";
-                        }
-
-                        holder.registerProblem(expression.getArgumentList(), "ENV: " + fileFullReport.getEnvironment().getEnvironmentName() + " - Invalid query detected! Reason: " + reason);
-                        System.out.println("ENV: " + fileFullReport.getEnvironment().getEnvironmentName() + " - Registered invalid query to expression: " + expression + " - Line number: " + lineNumber);
-                        return;
-                    }
-                }
+            holder.registerProblem(expression.getArgumentList(), getProblemDescription(environmentName, finding));
+            System.out.println("ENV: " + environmentName + " - Registered " + finding.getFindingType() + " to expression: " + expression + " - Line number: " + lineNumber);
+        }
+    }
+
+    static String getProblemDescription(String environmentName, EnvFileFindings.Finding finding) {
+        switch (finding.getFindingType()) {
+            case MISSING_INDEX:
+                return "ENV: " + environmentName + " - Missing index detected! Recommended Index: " + finding.getDetail()
+                        + "\nIndex Priority: " + finding.getIndexPriority();
+            case SLOW_QUERY:
+                return "ENV: " + environmentName + " - Slow query detected! Query score: " + finding.getDetail();
+            default:
+                return "ENV: " + environmentName + " - Invalid query detected! Reason: " + finding.getDetail();
+        }
+    }
+
+    /**
+     * @return the single finding reported for a line; missing indexes win over slow queries,
+     * which win over invalid queries
+     */
+    @Nullable
+    static EnvFileFindings.Finding getReportedFinding(@Nullable EnvFileFindings.LineFindings lineFindings, int slowQueryThreshold) {
+        if (lineFindings == null) {
+            return null;
+        }
+
+        //recommend indexes
+        if (lineFindings.getMissingIndex() != null) {
+            return lineFindings.getMissingIndex();
+        }
+
+        //slow queries
+        for (EnvFileFindings.Finding slowQuery : lineFindings.getSlowQueryList()) {
+            if (slowQuery.getQueryScore() >= slowQueryThreshold) {
+                return slowQuery;
             }
         }
+
+        //failed queries
+        return lineFindings.getInvalidQuery();
+    }
+
+    static boolean isQueryCall(PsiMethodCallExpression expression) {
+        String methodCallName = expression.getMethodExpression().getReferenceName();
+        return isCheckedType(expression.getType()) && methodCallName != null && methodCallName.toLowerCase().contains("query");
     }
 
     @Contract("null -> false")
-    private boolean isCheckedType(PsiType type) {
+    private static boolean isCheckedType(PsiType type) {
         if (!(type instanceof PsiClassType)) return false;
 
         PsiClass element = ((PsiClassType) type).resolveGenerics().getElement();
@@ -122,25 +113,12 @@ public class JNomadQueryVisitor extends JavaElementVisitor {
         return false;
     }
 
-    private static int getLineNumber(VirtualFile virtualFile, TextRange textRange) {
-        try {
-            BufferedReader br = new BufferedReader(new InputStreamReader(virtualFile.getInputStream()));
-            String line;
-            int pos = 0;
-            int lineNumber = 0;
-
-            while ((line = br.readLine()) != null) {
-                pos += line.length() + 1; //+1 for new line
-                lineNumber++;
-
-                if (pos >= textRange.getStartOffset()) {
-                    return lineNumber;
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private int getLineNumber(TextRange textRange) {
+        if (lineIndex == null) {
+            //built once per pass from the same text the findings were computed from
+            lineIndex = LineIndex.of(holder.getFile().getViewProvider().getContents());
         }
-        return -1;
+        return lineIndex.getLineNumber(textRange.getStartOffset());
     }
 
 }
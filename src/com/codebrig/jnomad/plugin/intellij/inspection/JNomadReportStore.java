@@ -0,0 +1,229 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.codebrig.jnomad.JNomadCLI;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-disk cache of file findings stored in the IDE system directory. Entries are keyed by
+ * file content hash plus connection identity (and its schema fingerprint) and the entity
+ * model the queries were translated with, so they stay valid across IDE restarts.
+ * <p>
+ * The store is kept in two generations so it can't grow without bound: findings are written
+ * to the current one and read from either (moving them forward when found in the previous).
+ * Once the current generation outgrows its share of the budget the previous one is deleted
+ * and a new one started, so entries not used for two generations are dropped. Entries for a
+ * schema that changed are removed as soon as the change is noticed.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class JNomadReportStore {
+
+    private static final int STORE_VERSION = 4;
+    private static final long GENERATION_BYTES = 128L * 1024L * 1024L;
+    private static final int SIZE_CHECK_INTERVAL = 1000;
+    private static PersistentHashMap<String, EnvFileFindings> reportStore;
+    private static PersistentHashMap<String, EnvFileFindings> previousStore;
+    private static int generation;
+    private static int previousGeneration = -1;
+    private static int putCount = 0;
+    private static boolean storeUnavailable = false;
+
+    static String getStoreKey(String contentHash, JNomadPluginConfiguration.DBEnvironment env,
+                              String schemaKey, String modelKey, int recommendIndexThreshold) {
+        return contentHash + "|" + env.getEnvironmentName() + "|" + schemaKey + "|" + modelKey + "|" + recommendIndexThreshold;
+    }
+
+    @Nullable
+    static synchronized EnvFileFindings get(String storeKey) {
+        PersistentHashMap<String, EnvFileFindings> store = getStore();
+        if (store == null) {
+            return null;
+        }
+        try {
+            EnvFileFindings findings = store.get(storeKey);
+            if (findings == null && previousStore != null) {
+                findings = previousStore.get(storeKey);
+                if (findings != null) {
+                    put(storeKey, findings); //still in use; keep it past the next rotation
+                }
+            }
+            return findings;
+        } catch (IOException e) {
+            e.printStackTrace();
+            recreateStore();
+            return null;
+        }
+    }
+
+    static synchronized void put(String storeKey, EnvFileFindings findings) {
+        PersistentHashMap<String, EnvFileFindings> store = getStore();
+        if (store == null) {
+            return;
+        }
+        try {
+            store.put(storeKey, findings);
+            if (++putCount % SIZE_CHECK_INTERVAL == 0 && getGenerationSize(generation) > GENERATION_BYTES) {
+                rotateStore();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            recreateStore();
+        }
+    }
+
+    /**
+     * Removes every entry computed against the given (no longer current) schema.
+     */
+    static synchronized void removeSchema(String schemaKey) {
+        if (getStore() == null) {
+            return;
+        }
+        try {
+            removeSchema(reportStore, schemaKey);
+            if (previousStore != null) {
+                removeSchema(previousStore, schemaKey);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            recreateStore();
+        }
+    }
+
+    static synchronized void close() {
+        reportStore = closeStore(reportStore);
+        previousStore = closeStore(previousStore);
+    }
+
+    private static void removeSchema(PersistentHashMap<String, EnvFileFindings> store, String schemaKey) throws IOException {
+        String schemaPart = "|" + schemaKey + "|";
+        List<String> removedKeyList = new ArrayList<>();
+        store.processKeysWithExistingMapping(storeKey -> {
+            if (storeKey.contains(schemaPart)) {
+                removedKeyList.add(storeKey);
+            }
+            return true;
+        });
+        for (String storeKey : removedKeyList) {
+            store.remove(storeKey);
+        }
+    }
+
+    private static PersistentHashMap<String, EnvFileFindings> getStore() {
+        if (reportStore == null && !storeUnavailable) {
+            try {
+                openStores();
+            } catch (IOException e) {
+                //corrupted or incompatible; start over
+                close();
+                FileUtil.delete(getStoreDirectory());
+                try {
+                    openStores();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    close();
+                    storeUnavailable = true;
+                }
+            }
+        }
+        return reportStore;
+    }
+
+    private static void openStores() throws IOException {
+        //newest generation is current, the one before it previous; anything older is left over
+        File storeDirectory = getStoreDirectory();
+        IOUtil.deleteAllFilesStartingWith(new File(storeDirectory.getParentFile(), "file-findings-")); //single-generation layout
+        storeDirectory.mkdirs();
+        List<Integer> generationList = new ArrayList<>();
+        File[] generationDirectories = storeDirectory.listFiles(File::isDirectory);
+        if (generationDirectories != null) {
+            for (File generationDirectory : generationDirectories) {
+                try {
+                    generationList.add(Integer.parseInt(generationDirectory.getName()));
+                } catch (NumberFormatException e) {
+                    FileUtil.delete(generationDirectory);
+                }
+            }
+        }
+        generationList.sort(null);
+        while (generationList.size() > 2) {
+            FileUtil.delete(getGenerationDirectory(generationList.remove(0)));
+        }
+
+        if (generationList.isEmpty()) {
+            generationList.add(0);
+        }
+        generation = generationList.get(generationList.size() - 1);
+        reportStore = openStore(generation);
+        previousGeneration = -1;
+        if (generationList.size() > 1) {
+            previousGeneration = generationList.get(0);
+            previousStore = openStore(previousGeneration);
+        }
+    }
+
+    private static void rotateStore() throws IOException {
+        System.out.println("Rotating JNomad report store; generation " + generation + " reached " + GENERATION_BYTES + " bytes");
+        closeStore(previousStore);
+        if (previousGeneration != -1) {
+            FileUtil.delete(getGenerationDirectory(previousGeneration));
+        }
+        previousStore = reportStore;
+        previousGeneration = generation;
+        generation++;
+        reportStore = openStore(generation);
+    }
+
+    private static void recreateStore() {
+        close();
+        FileUtil.delete(getStoreDirectory());
+    }
+
+    @Nullable
+    private static PersistentHashMap<String, EnvFileFindings> closeStore(@Nullable PersistentHashMap<String, EnvFileFindings> store) {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    private static PersistentHashMap<String, EnvFileFindings> openStore(int generation) throws IOException {
+        File generationDirectory = getGenerationDirectory(generation);
+        generationDirectory.mkdirs();
+        return new PersistentHashMap<>(new File(generationDirectory, "file-findings"), EnumeratorStringDescriptor.INSTANCE,
+                EnvFileFindings.EXTERNALIZER, 4096, STORE_VERSION);
+    }
+
+    private static long getGenerationSize(int generation) {
+        long size = 0;
+        File[] storeFiles = getGenerationDirectory(generation).listFiles();
+        if (storeFiles != null) {
+            for (File storeFile : storeFiles) {
+                size += storeFile.length();
+            }
+        }
+        return size;
+    }
+
+    private static File getGenerationDirectory(int generation) {
+        return new File(getStoreDirectory(), String.valueOf(generation));
+    }
+
+    private static File getStoreDirectory() {
+        return new File(new File(PathManager.getSystemPath(), "jnomad"), "findings-" + JNomadCLI.JNOMAD_VERSION);
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import java.util.Arrays;
+
+/**
+ * Start offsets of every line in a file's text so offsets resolve to line numbers
+ * by binary search instead of re-reading the file.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class LineIndex {
+
+    private final int[] lineStartOffsets;
+    private final int lineCount;
+
+    private LineIndex(int[] lineStartOffsets, int lineCount) {
+        this.lineStartOffsets = lineStartOffsets;
+        this.lineCount = lineCount;
+    }
+
+    static LineIndex of(CharSequence text) {
+        int[] lineStartOffsets = new int[64];
+        int lineCount = 1; //line 1 starts at offset 0
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                if (lineCount == lineStartOffsets.length) {
+                    lineStartOffsets = Arrays.copyOf(lineStartOffsets, lineCount * 2);
+                }
+                lineStartOffsets[lineCount++] = i + 1;
+            }
+        }
+        return new LineIndex(lineStartOffsets, lineCount);
+    }
+
+    /**
+     * @return 1-based line number containing offset
+     */
+    int getLineNumber(int offset) {
+        int index = Arrays.binarySearch(lineStartOffsets, 0, lineCount, offset);
+        if (index >= 0) {
+            return index + 1;
+        }
+        return -(index + 1); //insertion point is the following line's index
+    }
+
+    int getLineCount() {
+        return lineCount;
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import gnu.trove.TLongHashSet;
+
+/**
+ * Remembers content hashes of files which were scanned and contained no queries so they
+ * aren't parsed again. Only the first 64 bits of the hash are kept; once the limit is
+ * reached the filter starts over rather than growing without bound.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class NoQueryFileFilter {
+
+    private final int maximumSize;
+    private final TLongHashSet contentHashSet = new TLongHashSet();
+
+    NoQueryFileFilter(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    synchronized boolean contains(long contentHash) {
+        return contentHashSet.contains(contentHash);
+    }
+
+    synchronized void add(long contentHash) {
+        if (contentHashSet.size() >= maximumSize) {
+            contentHashSet.clear();
+        }
+        contentHashSet.add(contentHash);
+    }
+
+    synchronized int size() {
+        return contentHashSet.size();
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.codebrig.jnomad.JNomad;
+import com.codebrig.jnomad.SourceCodeTypeSolver;
+import com.codebrig.jnomad.model.SourceCodeExtract;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans entity classes in parallel by splitting the file list in half until each task
+ * holds no more than its share of the files. Every share is scanned by its own JNomad
+ * instance with its own type solver (over all the source directories, so types resolve
+ * as they would in a single scan) and the resulting extracts are merged on join. Nothing
+ * mutable is shared between the scans except JNomad's static state, which the caller
+ * keeps fixed by holding the parse lock for the whole scan.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class ParallelScanTask extends RecursiveTask<Map<String, SourceCodeExtract>> {
+
+    private final List<String> typeSolverDirectoryList;
+    private final List<File> entityFileList;
+    private final int shareSize;
+    private final ProgressIndicator indicator;
+    private final AtomicInteger scannedFileCount;
+    private final int totalFileCount;
+    private final double startFraction;
+    private final double endFraction;
+
+    ParallelScanTask(List<String> sourceDirectoryList, List<File> entityFileList, int scanThreadCount,
+                     ProgressIndicator indicator, double startFraction, double endFraction) {
+        this(sourceDirectoryList, entityFileList, (entityFileList.size() + scanThreadCount - 1) / scanThreadCount,
+                indicator, new AtomicInteger(), entityFileList.size(), startFraction, endFraction);
+    }
+
+    private ParallelScanTask(List<String> typeSolverDirectoryList, List<File> entityFileList, int shareSize,
+                             ProgressIndicator indicator, AtomicInteger scannedFileCount, int totalFileCount,
+                             double startFraction, double endFraction) {
+        this.typeSolverDirectoryList = typeSolverDirectoryList;
+        this.entityFileList = entityFileList;
+        this.shareSize = shareSize;
+        this.indicator = indicator;
+        this.scannedFileCount = scannedFileCount;
+        this.totalFileCount = totalFileCount;
+        this.startFraction = startFraction;
+        this.endFraction = endFraction;
+    }
+
+    @Override
+    protected Map<String, SourceCodeExtract> compute() {
+        if (entityFileList.isEmpty()) {
+            return Collections.emptyMap();
+        } else if (entityFileList.size() <= shareSize) {
+            return scanFiles();
+        }
+
+        int mid = entityFileList.size() / 2;
+        ParallelScanTask left = subTask(entityFileList.subList(0, mid));
+        ParallelScanTask right = subTask(entityFileList.subList(mid, entityFileList.size()));
+        left.fork();
+        Map<String, SourceCodeExtract> mergedMap = new TreeMap<>(right.compute());
+        mergedMap.putAll(left.join());
+        return mergedMap;
+    }
+
+    private ParallelScanTask subTask(List<File> subFileList) {
+        return new ParallelScanTask(typeSolverDirectoryList, subFileList, shareSize, indicator, scannedFileCount,
+                totalFileCount, startFraction, endFraction);
+    }
+
+    private Map<String, SourceCodeExtract> scanFiles() {
+        //type solvers cache what they've parsed and aren't safe to share between threads
+        SourceCodeTypeSolver typeSolver = new SourceCodeTypeSolver();
+        for (String typeSolverDirectory : typeSolverDirectoryList) {
+            typeSolver.addJavaParserTypeSolver(new File(typeSolverDirectory));
+        }
+        JNomad jnomad = new JNomad(typeSolver);
+        jnomad.setCacheScanResults(false);
+        jnomad.setOffenderReportPercentage(100);
+
+        Map<String, SourceCodeExtract> entityExtractMap = new TreeMap<>();
+        for (File entityFile : entityFileList) {
+            if (indicator.isCanceled()) {
+                throw new ProcessCanceledException();
+            }
+            indicator.setText2(entityFile.getName());
+            try (InputStream inputStream = new FileInputStream(entityFile)) {
+                entityExtractMap.put(entityFile.getAbsolutePath(), jnomad.scanSingleFile(inputStream));
+            } catch (IOException e) {
+                System.out.println("Unable to scan " + entityFile + " - Reason: " + e.getMessage());
+            }
+            int scannedCount = scannedFileCount.incrementAndGet();
+            indicator.setFraction(startFraction + (endFraction - startFraction) * scannedCount / totalFileCount);
+        }
+        return entityExtractMap;
+    }
+
+}
@@ -0,0 +1,368 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.google.common.hash.Hashing;
+import com.intellij.concurrency.JobScheduler;
+import org.jetbrains.annotations.Nullable;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * EXPLAIN responses recorded for one environment, stored as a gzipped file in the plan
+ * recording directory. In capture mode every plan the analysis sees is added; in replay
+ * mode plans are answered from the recording and no database is contacted. Connections
+ * are identified by database type and name (not host) so recordings can be shared.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class PlanRecording {
+
+    private static final int MAGIC = 0x4A4E5052; //JNPR
+    private static final int FORMAT_VERSION = 1;
+    private static final long SAVE_INTERVAL_SECONDS = 30;
+    private static final Map<String, PlanRecording> recordingMap = new HashMap<>();
+    private static ScheduledFuture<?> saveFuture;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte INTEGER_VALUE = 2;
+    private static final byte LONG_VALUE = 3;
+    private static final byte DOUBLE_VALUE = 4;
+    private static final byte DECIMAL_VALUE = 5;
+    private static final byte BOOLEAN_VALUE = 6;
+
+    /**
+     * The part of a recording belonging to a single connection, handed to ExplainCache.
+     */
+    static class ConnectionPlans {
+
+        private final PlanRecording recording;
+        private final String connectionName;
+        private final boolean replay;
+
+        ConnectionPlans(PlanRecording recording, String connectionName, boolean replay) {
+            this.recording = recording;
+            this.connectionName = connectionName;
+            this.replay = replay;
+        }
+
+        boolean isReplay() {
+            return replay;
+        }
+
+        ExplainCache.ExplainResult replay(String explainKey) throws SQLException {
+            ExplainCache.ExplainResult result = recording.planMap.get(connectionName + "\n" + explainKey);
+            if (result == null) {
+                throw new SQLException("No recorded plan in " + recording.recordingFile.getName() + " for: " + explainKey);
+            }
+            return result;
+        }
+
+        void capture(String explainKey, ExplainCache.ExplainResult result) {
+            if (recording.planMap.put(connectionName + "\n" + explainKey, result) != result) {
+                recording.dirty = true;
+            }
+        }
+    }
+
+    private final File recordingFile;
+    private final Map<String, ExplainCache.ExplainResult> planMap = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+    private String fingerprint = "";
+
+    private PlanRecording(File recordingFile) {
+        this.recordingFile = recordingFile;
+    }
+
+    /**
+     * @return plans for the connection, or null when plans aren't being recorded or replayed
+     */
+    @Nullable
+    static ConnectionPlans getConnectionPlans(JNomadPluginConfiguration pluginConfiguration,
+                                              JNomadPluginConfiguration.DBEnvironment env,
+                                              JNomadPluginConfiguration.DBConnection conn) {
+        JNomadPluginConfiguration.PlanMode planMode = pluginConfiguration.getPlanMode();
+        if (planMode == JNomadPluginConfiguration.PlanMode.LIVE) {
+            return null;
+        }
+        return new ConnectionPlans(getRecording(pluginConfiguration, env), getConnectionName(conn),
+                planMode == JNomadPluginConfiguration.PlanMode.REPLAY);
+    }
+
+    /**
+     * @return checksum of the environment's recording as it was loaded
+     */
+    static String getFingerprint(JNomadPluginConfiguration pluginConfiguration, JNomadPluginConfiguration.DBEnvironment env) {
+        return getRecording(pluginConfiguration, env).fingerprint;
+    }
+
+    /**
+     * Stand-in JDBC connection for replay mode; anything other than EXPLAIN (answered by
+     * ExplainCache before reaching it) fails.
+     */
+    static Connection createReplayConnection(JNomadPluginConfiguration.DBConnection conn) {
+        return (Connection) Proxy.newProxyInstance(PlanRecording.class.getClassLoader(), new Class[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "createStatement":
+                        case "prepareStatement":
+                            return Proxy.newProxyInstance(PlanRecording.class.getClassLoader(),
+                                    new Class[]{method.getReturnType()}, (statementProxy, statementMethod, statementArgs) -> {
+                                        if (statementMethod.getReturnType() == void.class) {
+                                            return null; //close(), parameter setters, etc.
+                                        }
+                                        throw new SQLException("No database connection in replay mode: " + conn);
+                                    });
+                        case "close":
+                        case "setAutoCommit":
+                        case "rollback":
+                            return null;
+                        case "isClosed":
+                            return false;
+                        case "isValid":
+                        case "getAutoCommit":
+                            return true;
+                        default:
+                            throw new SQLException("No database connection in replay mode: " + conn);
+                    }
+                });
+    }
+
+    static void saveAll() {
+        synchronized (recordingMap) {
+            for (PlanRecording recording : recordingMap.values()) {
+                recording.saveIfDirty();
+            }
+        }
+    }
+
+    static void closeAll() {
+        synchronized (recordingMap) {
+            saveAll();
+            recordingMap.clear();
+            if (saveFuture != null) {
+                saveFuture.cancel(false);
+                saveFuture = null;
+            }
+        }
+    }
+
+    private static PlanRecording getRecording(JNomadPluginConfiguration pluginConfiguration,
+                                              JNomadPluginConfiguration.DBEnvironment env) {
+        File recordingFile = new File(pluginConfiguration.getPlanRecordingDirectory(),
+                env.getEnvironmentName().replaceAll("[^A-Za-z0-9._-]", "_") + ".plans");
+        synchronized (recordingMap) {
+            if (saveFuture == null) {
+                saveFuture = JobScheduler.getScheduler().scheduleWithFixedDelay(PlanRecording::saveAll,
+                        SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+            return recordingMap.computeIfAbsent(recordingFile.getAbsolutePath(), path -> {
+                PlanRecording recording = new PlanRecording(recordingFile);
+                recording.load();
+                return recording;
+            });
+        }
+    }
+
+    private static String getConnectionName(JNomadPluginConfiguration.DBConnection conn) {
+        return conn.getDatabaseType() + "/" + conn.getDatabase();
+    }
+
+    private void load() {
+        if (!recordingFile.isFile()) {
+            return;
+        }
+        try {
+            byte[] recordingBytes = Files.readAllBytes(recordingFile.toPath());
+            fingerprint = Hashing.murmur3_128().hashBytes(recordingBytes).toString();
+            try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(recordingBytes)))) {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                    System.out.println("Ignoring plan recording with unknown format: " + recordingFile);
+                    return;
+                }
+                int planCount = in.readInt();
+                for (int i = 0; i < planCount; i++) {
+                    planMap.put(readString(in), readResult(in));
+                }
+            }
+            System.out.println("Loaded " + planMap.size() + " recorded plans from " + recordingFile);
+        } catch (IOException | SQLException e) {
+            System.out.println("Unable to load plan recording " + recordingFile + " - Reason: " + e.getMessage());
+        }
+    }
+
+    private synchronized void saveIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            recordingFile.getParentFile().mkdirs();
+            File tempFile = new File(recordingFile.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                Map<String, ExplainCache.ExplainResult> planSnapshot = new HashMap<>(planMap);
+                out.writeInt(planSnapshot.size());
+                for (Map.Entry<String, ExplainCache.ExplainResult> entry : planSnapshot.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeResult(out, entry.getValue());
+                }
+            }
+            Files.move(tempFile.toPath(), recordingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | SQLException e) {
+            dirty = true;
+            System.out.println("Unable to save plan recording " + recordingFile + " - Reason: " + e.getMessage());
+        }
+    }
+
+    private static void writeResult(DataOutputStream out, ExplainCache.ExplainResult result) throws IOException, SQLException {
+        SQLException failure = result.getFailure();
+        out.writeBoolean(failure != null);
+        if (failure != null) {
+            writeString(out, failure.getMessage());
+            writeString(out, failure.getSQLState());
+            out.writeInt(failure.getErrorCode());
+            return;
+        }
+
+        CachedRowSet rowSet = result.copyRowSet();
+        ResultSetMetaData metaData = rowSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        out.writeInt(columnCount);
+        for (int i = 1; i <= columnCount; i++) {
+            writeString(out, metaData.getColumnName(i));
+            writeString(out, metaData.getColumnLabel(i));
+            out.writeInt(metaData.getColumnType(i));
+            writeString(out, metaData.getColumnTypeName(i));
+        }
+        out.writeInt(rowSet.size());
+        rowSet.beforeFirst();
+        while (rowSet.next()) {
+            for (int i = 1; i <= columnCount; i++) {
+                writeValue(out, rowSet.getObject(i));
+            }
+        }
+    }
+
+    private static ExplainCache.ExplainResult readResult(DataInputStream in) throws IOException, SQLException {
+        if (in.readBoolean()) {
+            String message = readString(in);
+            String sqlState = readString(in);
+            return new ExplainCache.ExplainResult(null, new SQLException(message, sqlState, in.readInt()));
+        }
+
+        int columnCount = in.readInt();
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(columnCount);
+        for (int i = 1; i <= columnCount; i++) {
+            metaData.setColumnName(i, readString(in));
+            metaData.setColumnLabel(i, readString(in));
+            metaData.setColumnType(i, in.readInt());
+            metaData.setColumnTypeName(i, readString(in));
+        }
+        CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+        rowSet.setMetaData(metaData);
+        int rowCount = in.readInt();
+        for (int row = 0; row < rowCount; row++) {
+            rowSet.moveToInsertRow();
+            for (int i = 1; i <= columnCount; i++) {
+                Object value = readValue(in);
+                if (value == null) {
+                    rowSet.updateNull(i);
+                } else {
+                    rowSet.updateObject(i, value);
+                }
+            }
+            rowSet.insertRow();
+        }
+        rowSet.moveToCurrentRow();
+        rowSet.beforeFirst();
+        return new ExplainCache.ExplainResult(rowSet, null);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(INTEGER_VALUE);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(LONG_VALUE);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(DECIMAL_VALUE);
+            writeString(out, value.toString());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_VALUE);
+            out.writeBoolean((Boolean) value);
+        } else {
+            out.writeByte(STRING_VALUE);
+            writeString(out, value.toString());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte valueType = in.readByte();
+        switch (valueType) {
+            case NULL_VALUE:
+                return null;
+            case INTEGER_VALUE:
+                return in.readInt();
+            case LONG_VALUE:
+                return in.readLong();
+            case DOUBLE_VALUE:
+                return in.readDouble();
+            case DECIMAL_VALUE:
+                return new BigDecimal(readString(in));
+            case BOOLEAN_VALUE:
+                return in.readBoolean();
+            case STRING_VALUE:
+                return readString(in);
+            default:
+                throw new IOException("Unknown value type: " + valueType);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        //plans (e.g. JSON format) can exceed writeUTF's 64K limit
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
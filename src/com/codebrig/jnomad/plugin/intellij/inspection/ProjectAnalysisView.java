@@ -0,0 +1,139 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowAnchor;
+import com.intellij.openapi.wm.ToolWindowManager;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.intellij.ui.treeStructure.Tree;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of JNomadAnalyzeProjectTask: one node per distinct query with a child for each
+ * place (file, line and environment) it's reported. Double-click or Enter navigates.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class ProjectAnalysisView {
+
+    static final String TOOL_WINDOW_ID = "JNomad Analysis";
+
+    private static class QueryNode {
+
+        private final EnvFileFindings.Finding finding;
+        private final int occurrenceCount;
+
+        QueryNode(EnvFileFindings.Finding finding, int occurrenceCount) {
+            this.finding = finding;
+            this.occurrenceCount = occurrenceCount;
+        }
+
+        @Override
+        public String toString() {
+            String label;
+            switch (finding.getFindingType()) {
+                case MISSING_INDEX:
+                    label = "Missing index (" + finding.getDetail() + ")";
+                    break;
+                case SLOW_QUERY:
+                    label = "Slow query";
+                    break;
+                default:
+                    label = "Invalid query";
+                    break;
+            }
+            return label + ": " + finding.getQuery() + " [" + occurrenceCount + "]";
+        }
+    }
+
+    private static class OccurrenceNode {
+
+        private final JNomadAnalyzeProjectTask.QueryFinding queryFinding;
+
+        OccurrenceNode(JNomadAnalyzeProjectTask.QueryFinding queryFinding) {
+            this.queryFinding = queryFinding;
+        }
+
+        void navigate(Project project) {
+            int lineNumber = Math.max(1, queryFinding.getFinding().getBeginLine());
+            new OpenFileDescriptor(project, queryFinding.getFile(), lineNumber - 1, 0).navigate(true);
+        }
+
+        @Override
+        public String toString() {
+            return queryFinding.getFile().getName() + ":" + queryFinding.getFinding().getBeginLine() + " - "
+                    + JNomadQueryVisitor.getProblemDescription(queryFinding.getEnvironmentName(), queryFinding.getFinding());
+        }
+    }
+
+    static void show(Project project, int analyzedFileCount, Map<String, List<JNomadAnalyzeProjectTask.QueryFinding>> queryFindingMap) {
+        if (project.isDisposed()) {
+            return;
+        }
+        int findingCount = 0;
+        DefaultMutableTreeNode root = new DefaultMutableTreeNode();
+        for (List<JNomadAnalyzeProjectTask.QueryFinding> queryFindingList : queryFindingMap.values()) {
+            DefaultMutableTreeNode queryNode = new DefaultMutableTreeNode(
+                    new QueryNode(queryFindingList.get(0).getFinding(), queryFindingList.size()));
+            for (JNomadAnalyzeProjectTask.QueryFinding queryFinding : queryFindingList) {
+                queryNode.add(new DefaultMutableTreeNode(new OccurrenceNode(queryFinding)));
+            }
+            root.add(queryNode);
+            findingCount += queryFindingList.size();
+        }
+
+        Tree tree = new Tree(new DefaultTreeModel(root));
+        tree.setRootVisible(false);
+        tree.setShowsRootHandles(true);
+        tree.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    navigate(project, tree.getPathForLocation(e.getX(), e.getY()));
+                }
+            }
+        });
+        tree.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    navigate(project, tree.getSelectionPath());
+                }
+            }
+        });
+
+        ToolWindowManager toolWindowManager = ToolWindowManager.getInstance(project);
+        ToolWindow toolWindow = toolWindowManager.getToolWindow(TOOL_WINDOW_ID);
+        if (toolWindow == null) {
+            toolWindow = toolWindowManager.registerToolWindow(TOOL_WINDOW_ID, true, ToolWindowAnchor.BOTTOM, project, true);
+        }
+        String title = queryFindingMap.size() + " queries, " + findingCount + " findings in " + analyzedFileCount + " files";
+        Content content = ContentFactory.SERVICE.getInstance().createContent(new JBScrollPane(tree), title, false);
+        toolWindow.getContentManager().removeAllContents(true);
+        toolWindow.getContentManager().addContent(content);
+        toolWindow.activate(null);
+    }
+
+    private static void navigate(Project project, TreePath path) {
+        if (path == null) {
+            return;
+        }
+        Object userObject = ((DefaultMutableTreeNode) path.getLastPathComponent()).getUserObject();
+        if (userObject instanceof OccurrenceNode) {
+            ((OccurrenceNode) userObject).navigate(project);
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The query calls of a file in source order, each with the line it starts on and a
+ * signature of the query it runs. Two layouts with equal signatures run the same queries,
+ * so findings from one can be moved onto the other by line. A query built at runtime can
+ * depend on code anywhere (fields, helpers, other files), so a layout with one is never
+ * considered equal to another.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class QueryCallLayout {
+
+    private final List<String> signatureList;
+    private final TIntArrayList callLineList;
+    private final boolean runtimeQuery;
+
+    private QueryCallLayout(List<String> signatureList, TIntArrayList callLineList, boolean runtimeQuery) {
+        this.signatureList = signatureList;
+        this.callLineList = callLineList;
+        this.runtimeQuery = runtimeQuery;
+    }
+
+    static QueryCallLayout of(PsiFile psiFile) {
+        LineIndex lineIndex = LineIndex.of(psiFile.getViewProvider().getContents());
+        PsiConstantEvaluationHelper evaluationHelper = JavaPsiFacade.getInstance(psiFile.getProject()).getConstantEvaluationHelper();
+        List<String> signatureList = new ArrayList<>();
+        TIntArrayList callLineList = new TIntArrayList();
+        boolean runtimeQuery = false;
+        for (PsiMethodCallExpression expression : PsiTreeUtil.findChildrenOfType(psiFile, PsiMethodCallExpression.class)) {
+            if (JNomadQueryVisitor.isQueryCall(expression)) {
+                String signature = getSignature(expression, evaluationHelper);
+                runtimeQuery |= signature == null;
+                signatureList.add(signature != null ? signature : getRuntimeSignature(expression));
+                callLineList.add(lineIndex.getLineNumber(expression.getTextRange().getStartOffset()));
+            }
+        }
+        return new QueryCallLayout(signatureList, callLineList, runtimeQuery);
+    }
+
+    boolean isEmpty() {
+        return signatureList.isEmpty();
+    }
+
+    /**
+     * @return previous call line to current call line, or null if the queries differ (or
+     * either layout has a query built at runtime)
+     */
+    @Nullable
+    TIntIntHashMap getLineMapping(QueryCallLayout previousLayout) {
+        if (runtimeQuery || previousLayout.runtimeQuery || !signatureList.equals(previousLayout.signatureList)) {
+            return null;
+        }
+
+        TIntIntHashMap lineMapping = new TIntIntHashMap();
+        for (int i = 0; i < callLineList.size(); i++) {
+            int previousLine = previousLayout.callLineList.get(i);
+            int currentLine = callLineList.get(i);
+            if (lineMapping.containsKey(previousLine) && lineMapping.get(previousLine) != currentLine) {
+                return null; //calls which shared a line were split apart
+            }
+            lineMapping.put(previousLine, currentLine);
+        }
+        return lineMapping;
+    }
+
+    /**
+     * @return previous call line to current call line for every query call which is still
+     * present; calls are paired by signature in source order (runtime-built queries by the
+     * text of their enclosing member, which is only good enough for showing stale findings)
+     */
+    TIntIntHashMap getPartialLineMapping(QueryCallLayout previousLayout) {
+        Map<String, TIntArrayList> previousLineMap = new HashMap<>();
+        for (int i = 0; i < previousLayout.signatureList.size(); i++) {
+            previousLineMap.computeIfAbsent(previousLayout.signatureList.get(i), key -> new TIntArrayList())
+                    .add(previousLayout.callLineList.get(i));
+        }
+
+        TIntIntHashMap lineMapping = new TIntIntHashMap();
+        Map<String, Integer> occurrenceMap = new HashMap<>();
+        for (int i = 0; i < signatureList.size(); i++) {
+            String signature = signatureList.get(i);
+            TIntArrayList previousLines = previousLineMap.get(signature);
+            int occurrence = occurrenceMap.merge(signature, 1, Integer::sum) - 1;
+            if (previousLines != null && occurrence < previousLines.size()) {
+                int previousLine = previousLines.get(occurrence);
+                if (!lineMapping.containsKey(previousLine)) {
+                    lineMapping.put(previousLine, callLineList.get(i));
+                }
+            }
+        }
+        return lineMapping;
+    }
+
+    /**
+     * @return the call with its constant arguments, or null if an argument isn't constant
+     */
+    @Nullable
+    private static String getSignature(PsiMethodCallExpression expression, PsiConstantEvaluationHelper evaluationHelper) {
+        StringBuilder sb = new StringBuilder(expression.getMethodExpression().getText()).append('(');
+        for (PsiExpression argument : expression.getArgumentList().getExpressions()) {
+            Object constantValue = evaluationHelper.computeConstantExpression(argument);
+            if (constantValue == null) {
+                return null;
+            }
+            sb.append(constantValue).append('\u0000');
+        }
+        return sb.append(')').toString();
+    }
+
+    private static String getRuntimeSignature(PsiMethodCallExpression expression) {
+        PsiElement context = PsiTreeUtil.getParentOfType(expression, PsiMethod.class, PsiClassInitializer.class, PsiField.class);
+        return expression.getMethodExpression().getText() + "(\u0000" + (context != null ? context.getText() : expression.getText()) + ")";
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.codebrig.jnomad.plugin.intellij.inspection;
+
+import com.codebrig.jnomad.task.explain.adapter.DatabaseAdapterType;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.ide.util.PropertiesComponent;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls each configured database for a checksum of its column and index definitions.
+ * Cached plans are keyed by this fingerprint so they're only invalidated when the schema
+ * actually changes. The last known fingerprints are kept across IDE restarts. When plans
+ * are replayed the databases aren't polled; the recording's checksum stands in instead.
+ * Each project's JNomadProjectService has its own tracker for the connections it's configured with.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class SchemaFingerprintTracker {
+
+    private static final String FINGERPRINT_PROPERTY_PREFIX = "jnomad.schema.fingerprint.";
+    private static final String POSTGRES_COLUMN_QUERY = "SELECT table_schema, table_name, column_name, data_type, is_nullable " +
+            "FROM information_schema.columns WHERE table_schema NOT IN ('pg_catalog', 'information_schema') ORDER BY 1, 2, 3";
+    private static final String POSTGRES_INDEX_QUERY = "SELECT schemaname, tablename, indexname, indexdef " +
+            "FROM pg_indexes WHERE schemaname NOT IN ('pg_catalog', 'information_schema') ORDER BY 1, 2, 3";
+    private static final String MYSQL_COLUMN_QUERY = "SELECT table_name, column_name, column_type, is_nullable " +
+            "FROM information_schema.columns WHERE table_schema = DATABASE() ORDER BY 1, 2";
+    private static final String MYSQL_INDEX_QUERY = "SELECT table_name, index_name, seq_in_index, column_name, non_unique " +
+            "FROM information_schema.statistics WHERE table_schema = DATABASE() ORDER BY 1, 2, 3";
+    private final JNomadProjectService projectService;
+    private final Map<String, String> fingerprintMap = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> pollFuture;
+
+    SchemaFingerprintTracker(JNomadProjectService projectService) {
+        this.projectService = projectService;
+    }
+
+    synchronized void start(JNomadPluginConfiguration pluginConfiguration) {
+        stop();
+        boolean replay = pluginConfiguration.getPlanMode() == JNomadPluginConfiguration.PlanMode.REPLAY;
+        for (JNomadPluginConfiguration.DBEnvironment env : pluginConfiguration.getEnvironmentList()) {
+            for (JNomadPluginConfiguration.DBConnection conn : env.getConnectionList()) {
+                String fingerprint;
+                if (replay) {
+                    fingerprint = "replay-" + PlanRecording.getFingerprint(pluginConfiguration, env);
+                } else {
+                    fingerprint = PropertiesComponent.getInstance().getValue(FINGERPRINT_PROPERTY_PREFIX + conn.getCacheKey());
+                }
+                if (fingerprint != null) {
+                    fingerprintMap.put(conn.getCacheKey(), fingerprint);
+                } else {
+                    fingerprintMap.remove(conn.getCacheKey());
+                }
+            }
+        }
+        if (replay) {
+            return;
+        }
+        pollFuture = JobScheduler.getScheduler().scheduleWithFixedDelay(() -> pollFingerprints(pluginConfiguration),
+                0, pluginConfiguration.getSchemaPollInterval(), TimeUnit.SECONDS);
+    }
+
+    synchronized void stop() {
+        if (pollFuture != null) {
+            pollFuture.cancel(false);
+            pollFuture = null;
+        }
+    }
+
+    /**
+     * @return connection identity qualified by the last known schema fingerprint
+     */
+    String getSchemaKey(JNomadPluginConfiguration.DBConnection conn) {
+        String fingerprint = fingerprintMap.get(conn.getCacheKey());
+        return conn.getCacheKey() + "@" + (fingerprint == null ? "" : fingerprint);
+    }
+
+    private void pollFingerprints(JNomadPluginConfiguration pluginConfiguration) {
+        for (JNomadPluginConfiguration.DBEnvironment env : pluginConfiguration.getEnvironmentList()) {
+            for (JNomadPluginConfiguration.DBConnection conn : env.getConnectionList()) {
+                try {
+                    String fingerprint = computeFingerprint(conn, pluginConfiguration.getConnectionPoolSize());
+                    String previousSchemaKey = getSchemaKey(conn);
+                    String previousFingerprint = fingerprintMap.put(conn.getCacheKey(), fingerprint);
+                    if (!fingerprint.equals(previousFingerprint)) {
+                        PropertiesComponent.getInstance().setValue(FINGERPRINT_PROPERTY_PREFIX + conn.getCacheKey(), fingerprint);
+                        if (previousFingerprint != null) {
+                            System.out.println("Schema changed for database: " + conn.getDatabase() + " (Host: " + conn.getHost() + ":" + conn.getPort() + ")");
+                            projectService.schemaChanged(previousSchemaKey);
+                        }
+                    }
+                } catch (Exception e) {
+                    System.out.println("Unable to fingerprint schema of " + conn + " - Reason: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private String computeFingerprint(JNomadPluginConfiguration.DBConnection conn, int poolSize) throws SQLException {
+        String columnQuery;
+        String indexQuery;
+        if (conn.getDatabaseType() == DatabaseAdapterType.POSTGRESQL) {
+            columnQuery = POSTGRES_COLUMN_QUERY;
+            indexQuery = POSTGRES_INDEX_QUERY;
+        } else if (conn.getDatabaseType() == DatabaseAdapterType.MYSQL) {
+            columnQuery = MYSQL_COLUMN_QUERY;
+            indexQuery = MYSQL_INDEX_QUERY;
+        } else {
+            throw new UnsupportedOperationException();
+        }
+
+        DBConnectionPool connectionPool = DBConnectionPool.getPool(projectService.getOwnerName(), conn, poolSize);
+        Connection connection = connectionPool.borrow();
+        try (Statement statement = connection.createStatement()) {
+            Hasher hasher = Hashing.murmur3_128().newHasher();
+            hashRows(hasher, statement, columnQuery);
+            hashRows(hasher, statement, indexQuery);
+            return hasher.hash().toString();
+        } finally {
+            connectionPool.release(connection);
+        }
+    }
+
+    private static void hashRows(Hasher hasher, Statement statement, String query) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery(query)) {
+            int columnCount = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    hasher.putUnencodedChars(String.valueOf(resultSet.getString(i))).putChar('\u0000');
+                }
+                hasher.putChar('\n');
+            }
+        }
+    }
+
+}